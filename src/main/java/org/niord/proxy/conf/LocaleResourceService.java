@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.niord.proxy.conf;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Provides the shared {@link LocaleResources} of the configured languages and time zone.
+ * <p>
+ * The resources are created once upon start-up, rather than looking up resource bundles and creating
+ * date formats for every rendered message.
+ */
+@Singleton
+@SuppressWarnings("unused")
+public class LocaleResourceService {
+
+    @Inject
+    Settings settings;
+
+    @Inject
+    Logger log;
+
+    private final Map<String, LocaleResources> resources = new ConcurrentHashMap<>();
+
+
+    /** Creates the resources of the configured languages **/
+    @PostConstruct
+    private void init() {
+        Arrays.stream(settings.getLanguages()).forEach(this::getResources);
+        log.info("Initialized locale resources for languages " + resources.keySet());
+    }
+
+
+    /**
+     * Returns the resources for the given language and the configured time zone
+     * @param language the language
+     * @return the resources for the given language
+     */
+    public LocaleResources getResources(String language) {
+        return resources.computeIfAbsent(language, lang -> new LocaleResources(lang, settings.getTimeZone()));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.niord.proxy.conf;
+
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+import java.util.TimeZone;
+
+/**
+ * Immutable, thread-safe holder of the "MessageDetails" resource bundle strings and date formatters
+ * for a specific language and time zone.
+ * <p>
+ * Use {@link LocaleResourceService} to look up the shared instances.
+ */
+@SuppressWarnings("unused")
+public class LocaleResources {
+
+    public static final String BUNDLE_NAME = "MessageDetails";
+
+    private final String language;
+    private final Locale locale;
+    private final ZoneId timeZone;
+    private final Map<String, String> strings;
+    private final DateTimeFormatter sourceDateFormat;
+    private final DateTimeFormatter filterDateFormat;
+
+
+    /**
+     * Constructor
+     * @param language the language
+     * @param timeZone the time zone ID
+     */
+    public LocaleResources(String language, String timeZone) {
+        this.language = language;
+        this.locale = new Locale(language);
+        this.timeZone = TimeZone.getTimeZone(timeZone).toZoneId();
+
+        ResourceBundle bundle = ResourceBundle.getBundle(BUNDLE_NAME, locale);
+        Map<String, String> bundleStrings = new HashMap<>();
+        for (String key : bundle.keySet()) {
+            bundleStrings.put(key, bundle.getString(key));
+        }
+        this.strings = Collections.unmodifiableMap(bundleStrings);
+
+        this.sourceDateFormat = DateTimeFormatter.ofPattern(getString("source_date_format"), locale)
+                .withZone(this.timeZone);
+        this.filterDateFormat = DateTimeFormatter.ofPattern(getString("filter_date_format"), locale)
+                .withZone(this.timeZone);
+    }
+
+
+    /**
+     * Returns the resource bundle string with the given key
+     * @param key the key
+     * @return the resource bundle string with the given key
+     * @throws MissingResourceException if the key is undefined
+     */
+    public String getString(String key) {
+        String value = strings.get(key);
+        if (value == null) {
+            throw new MissingResourceException(
+                    "Missing resource " + key, BUNDLE_NAME + "_" + language, key);
+        }
+        return value;
+    }
+
+
+    /**
+     * Formats the date using the "source_date_format" of the resource bundle
+     * @param date the date to format
+     * @return the formatted date
+     */
+    public String formatSourceDate(Date date) {
+        return sourceDateFormat.format(date.toInstant());
+    }
+
+
+    /**
+     * Formats the date using the "filter_date_format" of the resource bundle
+     * @param date the date to format
+     * @return the formatted date
+     */
+    public String formatFilterDate(Date date) {
+        return filterDateFormat.format(date.toInstant());
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    public Locale getLocale() {
+        return locale;
+    }
+
+    public ZoneId getTimeZone() {
+        return timeZone;
+    }
+
+    public Map<String, String> getStrings() {
+        return strings;
+    }
+}
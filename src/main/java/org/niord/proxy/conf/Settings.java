@@ -35,6 +35,31 @@ import org.niord.proxy.rest.RootArea;
  *     <li>niord-proxy.languages : Comma-separated list of languages</li>
  *     <li>niord-proxy.executionMode : The execution mode, either "development", "test" or "production"</li>
  *     <li>niord-proxy.wmsServerUrl : A WMS server URL incl username and password. If defined, enables a proxied WMS layer.</li>
+ *     <li>niord-proxy.archiveRootPath : Path to the archive of messages that are no longer active</li>
+ *     <li>niord-proxy.archiveMemorySize : The max number of decoded archived messages to keep on the heap</li>
+ *     <li>niord-proxy.archiveMaxSize : The max number of archived messages to keep on disk</li>
+ *     <li>niord-proxy.pdfCacheRootPath : Path to the cache of generated PDF files. The files are kept in a
+ *              dedicated "niord-pdf-cache" sub-directory</li>
+ *     <li>niord-proxy.pdfCacheMaxSize : The max number of generated PDF files to cache</li>
+ *     <li>niord-proxy.pdfCacheTtl : The max age, in minutes, of cached PDF files</li>
+ *     <li>niord-proxy.pdfRenderThreads : The number of threads used for rendering PDF files</li>
+ *     <li>niord-proxy.pdfRenderQueueSize : The max number of queued PDF requests. Further requests are rejected</li>
+ *     <li>niord-proxy.pdfRenderTimeout : The max time, in seconds, for completing a PDF request</li>
+ *     <li>niord-proxy.pdfXhtml : Whether to render PDF files directly from well-formed XHTML, or clean up
+ *              the HTML with JTidy first. Defaults to true</li>
+ *     <li>niord-proxy.pdfChunkSize : The number of messages per separately rendered PDF fragment, when rendering
+ *              large PDF files in parallel. Use 0 to always render PDF files as a single document</li>
+ *     <li>niord-proxy.pdfFragmentCacheMaxSize : The max number of rendered PDF fragments to cache</li>
+ *     <li>niord-proxy.pdfImageCacheRootPath : Path to the cache of print-resolution images used in PDF files</li>
+ *     <li>niord-proxy.pdfImageDpi : The print resolution that large images are scaled down to in PDF files.
+ *              Use 0 to embed images at their original resolution</li>
+ *     <li>niord-proxy.htmlCacheMaxSize : The max number of rendered HTML details pages to cache</li>
+ *     <li>niord-proxy.htmlCacheMaxMemory : The max memory, in MB, used for caching rendered HTML details pages</li>
+ *     <li>niord-proxy.htmlCacheTtl : The max age, in minutes, of cached HTML details pages</li>
+ *     <li>niord-proxy.htmlPageSize : The number of messages per page of the HTML details page, with subsequent
+ *              pages being loaded lazily. Use 0 to render all messages at once</li>
+ *     <li>niord-proxy.pdfPrerender : Semicolon-separated list of PDF query strings, e.g. "language=en&amp;active=true",
+ *              to pre-render after each message list update</li>
  * </ul>
  */
 @Singleton
@@ -67,6 +92,44 @@ public class Settings {
 
     private String wmsServerUrl;
 
+    private String archiveRoot;
+
+    private int archiveMemorySize;
+
+    private int archiveMaxSize;
+
+    private String pdfCacheRoot;
+
+    private int pdfCacheMaxSize;
+
+    private int pdfCacheTtl;
+
+    private String[] pdfPrerender;
+
+    private int pdfRenderThreads;
+
+    private int pdfRenderQueueSize;
+
+    private int pdfRenderTimeout;
+
+    private boolean pdfXhtml;
+
+    private int pdfChunkSize;
+
+    private int pdfFragmentCacheMaxSize;
+
+    private String pdfImageCacheRoot;
+
+    private int pdfImageDpi;
+
+    private int htmlCacheMaxSize;
+
+    private int htmlCacheMaxMemory;
+
+    private int htmlCacheTtl;
+
+    private int htmlPageSize;
+
     /** Constructor **/
     @PostConstruct
     private void init() {
@@ -113,6 +176,76 @@ public class Settings {
 
         wmsServerUrl = readProperty("niord-proxy.wmsServerUrl", "");
         log.info("wmsServerUrl: " + wmsServerUrl);
+
+        archiveRoot = System.getProperty("niord-proxy.archiveRootPath");
+        if (StringUtils.isBlank(archiveRoot)) {
+            archiveRoot = System.getProperty("user.home") + "/.niord-gh-proxy/archive";
+        }
+        log.info("archiveRoot: " + archiveRoot);
+
+        archiveMemorySize = readIntProperty("niord-proxy.archiveMemorySize", 200);
+        log.info("archiveMemorySize: " + archiveMemorySize);
+
+        archiveMaxSize = readIntProperty("niord-proxy.archiveMaxSize", 5000);
+        log.info("archiveMaxSize: " + archiveMaxSize);
+
+        pdfCacheRoot = System.getProperty("niord-proxy.pdfCacheRootPath");
+        if (StringUtils.isBlank(pdfCacheRoot)) {
+            pdfCacheRoot = System.getProperty("user.home") + "/.niord-gh-proxy/pdf-cache";
+        }
+        log.info("pdfCacheRoot: " + pdfCacheRoot);
+
+        pdfCacheMaxSize = readIntProperty("niord-proxy.pdfCacheMaxSize", 100);
+        log.info("pdfCacheMaxSize: " + pdfCacheMaxSize);
+
+        pdfCacheTtl = readIntProperty("niord-proxy.pdfCacheTtl", 60);
+        log.info("pdfCacheTtl: " + pdfCacheTtl);
+
+        pdfPrerender = Arrays.stream(readProperty("niord-proxy.pdfPrerender", "").split(";"))
+                .filter(StringUtils::isNotBlank)
+                .toArray(String[]::new);
+        log.info("pdfPrerender: " + Arrays.asList(pdfPrerender));
+
+        pdfRenderThreads = Math.max(1, readIntProperty(
+                "niord-proxy.pdfRenderThreads",
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+        log.info("pdfRenderThreads: " + pdfRenderThreads);
+
+        pdfRenderQueueSize = Math.max(1, readIntProperty("niord-proxy.pdfRenderQueueSize", 20));
+        log.info("pdfRenderQueueSize: " + pdfRenderQueueSize);
+
+        pdfRenderTimeout = readIntProperty("niord-proxy.pdfRenderTimeout", 120);
+        log.info("pdfRenderTimeout: " + pdfRenderTimeout);
+
+        pdfXhtml = Boolean.valueOf(readProperty("niord-proxy.pdfXhtml", "true").trim());
+        log.info("pdfXhtml: " + pdfXhtml);
+
+        pdfChunkSize = Math.max(0, readIntProperty("niord-proxy.pdfChunkSize", 25));
+        log.info("pdfChunkSize: " + pdfChunkSize);
+
+        pdfFragmentCacheMaxSize = readIntProperty("niord-proxy.pdfFragmentCacheMaxSize", 500);
+        log.info("pdfFragmentCacheMaxSize: " + pdfFragmentCacheMaxSize);
+
+        pdfImageCacheRoot = System.getProperty("niord-proxy.pdfImageCacheRootPath");
+        if (StringUtils.isBlank(pdfImageCacheRoot)) {
+            pdfImageCacheRoot = System.getProperty("user.home") + "/.niord-gh-proxy/pdf-images";
+        }
+        log.info("pdfImageCacheRoot: " + pdfImageCacheRoot);
+
+        pdfImageDpi = Math.max(0, readIntProperty("niord-proxy.pdfImageDpi", 150));
+        log.info("pdfImageDpi: " + pdfImageDpi);
+
+        htmlCacheMaxSize = readIntProperty("niord-proxy.htmlCacheMaxSize", 50);
+        log.info("htmlCacheMaxSize: " + htmlCacheMaxSize);
+
+        htmlCacheMaxMemory = readIntProperty("niord-proxy.htmlCacheMaxMemory", 32);
+        log.info("htmlCacheMaxMemory: " + htmlCacheMaxMemory);
+
+        htmlCacheTtl = readIntProperty("niord-proxy.htmlCacheTtl", 60);
+        log.info("htmlCacheTtl: " + htmlCacheTtl);
+
+        htmlPageSize = Math.max(0, readIntProperty("niord-proxy.htmlPageSize", 50));
+        log.info("htmlPageSize: " + htmlPageSize);
     }
 
 
@@ -127,6 +260,14 @@ public class Settings {
         return defaultValue;
     }
 
+    private static int readIntProperty(String property, int defaultValue) {
+        try {
+            return Integer.parseInt(readProperty(property, String.valueOf(defaultValue)).trim());
+        } catch (NumberFormatException ignored) {
+            return defaultValue;
+        }
+    }
+
     /**
      * For e.g. "*.e-navigation.net", with no intermediate certificates specified, you will get an
      * "unable to find valid certification path to requested target.
@@ -215,4 +356,80 @@ public class Settings {
     public String getWmsServerUrl() {
         return wmsServerUrl;
     }
+
+    public String getArchiveRoot() {
+        return archiveRoot;
+    }
+
+    public int getArchiveMemorySize() {
+        return archiveMemorySize;
+    }
+
+    public int getArchiveMaxSize() {
+        return archiveMaxSize;
+    }
+
+    public String getPdfCacheRoot() {
+        return pdfCacheRoot;
+    }
+
+    public int getPdfCacheMaxSize() {
+        return pdfCacheMaxSize;
+    }
+
+    public int getPdfCacheTtl() {
+        return pdfCacheTtl;
+    }
+
+    public String[] getPdfPrerender() {
+        return pdfPrerender;
+    }
+
+    public int getPdfRenderThreads() {
+        return pdfRenderThreads;
+    }
+
+    public int getPdfRenderQueueSize() {
+        return pdfRenderQueueSize;
+    }
+
+    public int getPdfRenderTimeout() {
+        return pdfRenderTimeout;
+    }
+
+    public boolean isPdfXhtml() {
+        return pdfXhtml;
+    }
+
+    public int getPdfChunkSize() {
+        return pdfChunkSize;
+    }
+
+    public int getPdfFragmentCacheMaxSize() {
+        return pdfFragmentCacheMaxSize;
+    }
+
+    public String getPdfImageCacheRoot() {
+        return pdfImageCacheRoot;
+    }
+
+    public int getPdfImageDpi() {
+        return pdfImageDpi;
+    }
+
+    public int getHtmlCacheMaxSize() {
+        return htmlCacheMaxSize;
+    }
+
+    public int getHtmlCacheMaxMemory() {
+        return htmlCacheMaxMemory;
+    }
+
+    public int getHtmlCacheTtl() {
+        return htmlCacheTtl;
+    }
+
+    public int getHtmlPageSize() {
+        return htmlPageSize;
+    }
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.niord.proxy.rest;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * Serializes REST responses using one of the compact binary JSON encodings, CBOR or Smile.
+ * <p>
+ * The data model is the same as for the plain JSON responses, so clients only need to
+ * pick the encoding via the "Accept" header, e.g. "Accept: application/cbor".
+ */
+@Provider
+@Produces({ BinaryMessageBodyWriter.APPLICATION_CBOR, BinaryMessageBodyWriter.APPLICATION_SMILE })
+@SuppressWarnings("unused")
+public class BinaryMessageBodyWriter implements MessageBodyWriter<Object> {
+
+    public static final String APPLICATION_CBOR     = "application/cbor";
+    public static final String APPLICATION_SMILE    = "application/x-jackson-smile";
+
+    // Object mappers are thread-safe once configured
+    private static final ObjectMapper CBOR_MAPPER   = createMapper(new CBORFactory());
+    private static final ObjectMapper SMILE_MAPPER  = createMapper(new SmileFactory());
+
+
+    /** Creates an object mapper that leaves the entity stream open for the JAX-RS runtime **/
+    private static ObjectMapper createMapper(JsonFactory factory) {
+        ObjectMapper mapper = new ObjectMapper(factory);
+        mapper.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+        return mapper;
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return getMapper(mediaType) != null;
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public long getSize(Object o, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return -1;
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeTo(Object o, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                        MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream)
+            throws IOException, WebApplicationException {
+
+        ObjectMapper mapper = getMapper(mediaType);
+        mapper.writerFor(mapper.getTypeFactory().constructType(genericType))
+                .writeValue(entityStream, o);
+    }
+
+
+    /**
+     * Returns the object mapper to use for the given media type, or null if unsupported
+     * @param mediaType the media type
+     * @return the object mapper to use for the given media type, or null if unsupported
+     */
+    private ObjectMapper getMapper(MediaType mediaType) {
+        if (mediaType == null) {
+            return null;
+        }
+        String type = mediaType.getType() + "/" + mediaType.getSubtype();
+        if (APPLICATION_CBOR.equalsIgnoreCase(type)) {
+            return CBOR_MAPPER;
+        } else if (APPLICATION_SMILE.equalsIgnoreCase(type)) {
+            return SMILE_MAPPER;
+        }
+        return null;
+    }
+}
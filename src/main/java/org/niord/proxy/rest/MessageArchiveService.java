@@ -0,0 +1,269 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.niord.proxy.rest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.niord.model.message.MessageVo;
+import org.niord.proxy.conf.Settings;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Singleton;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Retains messages that are no longer part of the active message list, i.e. expired and cancelled messages,
+ * so that links to these messages can be resolved without fetching the messages from the NW-NM service.
+ * <p>
+ * The archived messages are stored as JSON files in the archive root directory. Messages archived or
+ * read since start-up are also kept in an off-heap {@link MessageStore}, with the most recently accessed
+ * messages decoded on the heap. The number of archived messages is bounded, and the oldest archived
+ * messages are deleted first.
+ * <p>
+ * Each archive file is named from the URL-encoded message ID and short ID, separated by a "~",
+ * so that the archive can be indexed upon start-up without reading the files.
+ */
+@Singleton
+@Lock(LockType.READ)
+@SuppressWarnings("unused")
+public class MessageArchiveService {
+
+    static final String FILE_SUFFIX = ".json";
+    static final String ID_SEPARATOR = "~";
+
+    @Inject
+    Settings settings;
+
+    @Inject
+    Logger log;
+
+    private Path archiveRoot;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    // The archive files, keyed by message ID, in the order that the messages were archived
+    private final Map<String, Path> files = new LinkedHashMap<>();
+
+    // Maps the short IDs of the archived messages to the message IDs
+    private final Map<String, String> shortIds = new ConcurrentHashMap<>();
+
+    // Off-heap store of the messages archived or read since start-up
+    private MessageStore messageStore;
+
+
+    /** Initializes the archive **/
+    @PostConstruct
+    private void init() {
+
+        messageStore = new MessageStore(settings.getArchiveMemorySize());
+
+        archiveRoot = Paths.get(settings.getArchiveRoot());
+        try {
+            Files.createDirectories(archiveRoot);
+
+            // Index the archived messages, oldest first
+            List<Path> archiveFiles;
+            try (Stream<Path> paths = Files.list(archiveRoot)) {
+                archiveFiles = paths
+                        .filter(p -> p.getFileName().toString().endsWith(FILE_SUFFIX))
+                        .sorted(Comparator.comparing(p -> p.toFile().lastModified()))
+                        .collect(Collectors.toList());
+            }
+            synchronized (files) {
+                for (Path file : archiveFiles) {
+                    String[] ids = decodeFileName(file.getFileName().toString());
+                    files.put(ids[0], file);
+                    if (ids.length > 1) {
+                        shortIds.put(ids[1], ids[0]);
+                    }
+                }
+            }
+            log.info(String.format("Indexed %d archived messages in %s", archiveFiles.size(), archiveRoot));
+
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Error initializing message archive " + archiveRoot, e);
+        }
+    }
+
+
+    /**
+     * Archives the given messages, which are no longer part of the active message list
+     * @param messages the messages to archive
+     */
+    public void archive(Collection<MessageVo> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        for (MessageVo message : messages) {
+            try {
+                Path file = archiveRoot.resolve(encodeFileName(message));
+                mapper.writeValue(file.toFile(), message);
+                synchronized (files) {
+                    // Re-insert to keep the archive order
+                    Path prevFile = files.remove(message.getId());
+                    if (prevFile != null && !prevFile.equals(file)) {
+                        Files.deleteIfExists(prevFile);
+                    }
+                    files.put(message.getId(), file);
+                }
+                if (message.getShortId() != null) {
+                    shortIds.put(message.getShortId(), message.getId());
+                }
+                messageStore.put(message);
+            } catch (Exception e) {
+                log.log(Level.WARNING, "Error archiving message " + message.getId() + ": " + e.getMessage());
+            }
+        }
+
+        pruneArchive();
+
+        log.info(String.format("Archived %d messages. Archive size: %d, off-heap store size: %d messages in %d bytes",
+                messages.size(), size(), messageStore.size(), messageStore.getAllocatedBytes()));
+    }
+
+
+    /**
+     * Removes the given messages from the archive, e.g. because they have become active again
+     * @param messageIds the IDs of the messages to remove
+     */
+    public void remove(Collection<String> messageIds) {
+        List<Path> removedFiles = new ArrayList<>();
+        synchronized (files) {
+            if (files.isEmpty()) {
+                return;
+            }
+            messageIds.forEach(id -> {
+                Path file = files.remove(id);
+                if (file != null) {
+                    removedFiles.add(file);
+                    messageStore.remove(id);
+                }
+            });
+        }
+        removedFiles.forEach(this::deleteFile);
+    }
+
+
+    /**
+     * Returns the archived message with the given ID or short ID, or null if not archived
+     * @param messageId the message ID or short ID
+     * @return the archived message with the given ID or short ID
+     */
+    public MessageVo getMessage(String messageId) {
+        if (messageId == null) {
+            return null;
+        }
+        String id = shortIds.getOrDefault(messageId, messageId);
+
+        MessageVo message = messageStore.get(id);
+        if (message == null) {
+            Path file;
+            synchronized (files) {
+                file = files.get(id);
+            }
+            if (file != null) {
+                try {
+                    message = mapper.readValue(file.toFile(), MessageVo.class);
+                    messageStore.put(message);
+                } catch (IOException e) {
+                    log.log(Level.WARNING, "Error reading archived message " + id + ": " + e.getMessage());
+                }
+            }
+        }
+        return message;
+    }
+
+
+    /**
+     * Returns the number of archived messages
+     * @return the number of archived messages
+     */
+    public int size() {
+        synchronized (files) {
+            return files.size();
+        }
+    }
+
+
+    /** Deletes the oldest archived messages until the archive is within its max size **/
+    private void pruneArchive() {
+        List<Path> prunedFiles = new ArrayList<>();
+        synchronized (files) {
+            Iterator<Map.Entry<String, Path>> it = files.entrySet().iterator();
+            while (files.size() > settings.getArchiveMaxSize() && it.hasNext()) {
+                Map.Entry<String, Path> entry = it.next();
+                messageStore.remove(entry.getKey());
+                prunedFiles.add(entry.getValue());
+                it.remove();
+            }
+        }
+        prunedFiles.forEach(this::deleteFile);
+    }
+
+
+    /** Deletes the given archive file, and the short ID pointing to it **/
+    private void deleteFile(Path file) {
+        try {
+            String[] ids = decodeFileName(file.getFileName().toString());
+            if (ids.length > 1) {
+                shortIds.remove(ids[1], ids[0]);
+            }
+            Files.deleteIfExists(file);
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Error deleting archive file " + file + ": " + e.getMessage());
+        }
+    }
+
+
+    /** Returns the archive file name of the message **/
+    private String encodeFileName(MessageVo message) throws UnsupportedEncodingException {
+        String fileName = URLEncoder.encode(message.getId(), "UTF-8");
+        if (message.getShortId() != null) {
+            fileName += ID_SEPARATOR + URLEncoder.encode(message.getShortId(), "UTF-8");
+        }
+        return fileName + FILE_SUFFIX;
+    }
+
+
+    /** Returns the message ID and, if defined, the short ID of the archive file name **/
+    private String[] decodeFileName(String fileName) throws UnsupportedEncodingException {
+        String[] ids = fileName.substring(0, fileName.length() - FILE_SUFFIX.length()).split(ID_SEPARATOR);
+        for (int x = 0; x < ids.length; x++) {
+            ids[x] = URLDecoder.decode(ids[x], "UTF-8");
+        }
+        return ids;
+    }
+}
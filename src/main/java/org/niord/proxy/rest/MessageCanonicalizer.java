@@ -0,0 +1,165 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.niord.proxy.rest;
+
+import org.niord.model.DataFilter;
+import org.niord.model.message.AreaDescVo;
+import org.niord.model.message.AreaVo;
+import org.niord.model.message.CategoryDescVo;
+import org.niord.model.message.CategoryVo;
+import org.niord.model.message.MessageDescVo;
+import org.niord.model.message.MessageVo;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Canonicalizes the object graph of a list of messages parsed from the NW-NM service.
+ * <p>
+ * Jackson creates separate copies of the areas, including their parent chains, and the categories
+ * of each message. The canonicalizer replaces identical areas and categories with a single shared
+ * instance, and de-duplicates the strings of the area, category, message and message part descriptions.
+ * <p>
+ * Areas and categories are identified by their ID along with the IDs of their parent chain, since the
+ * virtual "General" area has the same ID for all root areas. The shared instances are copies created by
+ * the canonicalizer, rather than the instances of the first message seen, and must not be modified.
+ * A new canonicalizer should be used for each message list, so that the shared instances of a snapshot
+ * are not modified by subsequent updates.
+ */
+@SuppressWarnings("unused")
+public class MessageCanonicalizer {
+
+    private final Map<String, String> strings = new HashMap<>();
+    private final Map<String, AreaVo> areas = new HashMap<>();
+    private final Map<AreaVo, String> areaKeys = new IdentityHashMap<>();
+    private final Map<String, CategoryVo> categories = new HashMap<>();
+    private final Map<CategoryVo, String> categoryKeys = new IdentityHashMap<>();
+
+
+    /**
+     * Canonicalizes the areas, categories and description strings of the messages
+     * @param messages the messages to canonicalize
+     */
+    public void canonicalize(List<MessageVo> messages) {
+        messages.forEach(this::canonicalize);
+    }
+
+
+    /**
+     * Canonicalizes the areas, categories and description strings of the message
+     * @param message the message to canonicalize
+     */
+    public void canonicalize(MessageVo message) {
+        if (message.getAreas() != null) {
+            message.setAreas(message.getAreas().stream()
+                    .map(this::canonicalize)
+                    .collect(Collectors.toList()));
+        }
+        if (message.getCategories() != null) {
+            message.setCategories(message.getCategories().stream()
+                    .map(this::canonicalize)
+                    .collect(Collectors.toList()));
+        }
+        if (message.getDescs() != null) {
+            for (MessageDescVo desc : message.getDescs()) {
+                desc.setLang(intern(desc.getLang()));
+                desc.setTitle(intern(desc.getTitle()));
+                desc.setVicinity(intern(desc.getVicinity()));
+                desc.setPublication(intern(desc.getPublication()));
+                desc.setSource(intern(desc.getSource()));
+            }
+        }
+        if (message.getParts() != null) {
+            message.getParts().stream()
+                    .filter(p -> p.getDescs() != null)
+                    .flatMap(p -> p.getDescs().stream())
+                    .forEach(desc -> {
+                        desc.setLang(intern(desc.getLang()));
+                        desc.setSubject(intern(desc.getSubject()));
+                        desc.setDetails(intern(desc.getDetails()));
+                    });
+        }
+    }
+
+
+    /**
+     * Returns the canonical instance of the area
+     * @param area the area
+     * @return the canonical instance of the area
+     */
+    public AreaVo canonicalize(AreaVo area) {
+        if (area == null || area.getId() == null) {
+            return area;
+        }
+        AreaVo parent = canonicalize(area.getParent());
+        String key = parent != null ? area.getId() + "/" + areaKeys.get(parent) : String.valueOf(area.getId());
+
+        AreaVo canonical = areas.get(key);
+        if (canonical == null) {
+            // Create the shared instance as a copy, pointing to the shared parent
+            canonical = area.copy(DataFilter.get());
+            canonical.setParent(parent);
+            if (canonical.getDescs() != null) {
+                for (AreaDescVo desc : canonical.getDescs()) {
+                    desc.setLang(intern(desc.getLang()));
+                    desc.setName(intern(desc.getName()));
+                }
+            }
+            areas.put(key, canonical);
+            areaKeys.put(canonical, key);
+        }
+        return canonical;
+    }
+
+
+    /**
+     * Returns the canonical instance of the category
+     * @param category the category
+     * @return the canonical instance of the category
+     */
+    public CategoryVo canonicalize(CategoryVo category) {
+        if (category == null || category.getId() == null) {
+            return category;
+        }
+        CategoryVo parent = canonicalize(category.getParent());
+        String key = parent != null ? category.getId() + "/" + categoryKeys.get(parent) : String.valueOf(category.getId());
+
+        CategoryVo canonical = categories.get(key);
+        if (canonical == null) {
+            // Create the shared instance as a copy, pointing to the shared parent
+            canonical = category.copy(DataFilter.get());
+            canonical.setParent(parent);
+            if (canonical.getDescs() != null) {
+                for (CategoryDescVo desc : canonical.getDescs()) {
+                    desc.setLang(intern(desc.getLang()));
+                    desc.setName(intern(desc.getName()));
+                }
+            }
+            categories.put(key, canonical);
+            categoryKeys.put(canonical, key);
+        }
+        return canonical;
+    }
+
+
+    /** Returns the shared instance of the string **/
+    private String intern(String str) {
+        return str == null ? null : strings.computeIfAbsent(str, s -> s);
+    }
+}
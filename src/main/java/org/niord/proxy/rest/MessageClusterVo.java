@@ -0,0 +1,57 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.niord.proxy.rest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A cluster of message markers, positioned at the mean position of the message centroids
+ */
+@SuppressWarnings("unused")
+public class MessageClusterVo {
+
+    double lat;
+    double lon;
+    List<String> messageIds = new ArrayList<>();
+
+    /** No-arg constructor **/
+    public MessageClusterVo() {
+    }
+
+    /** Adds a message to the cluster and updates the cluster position **/
+    void addMessage(String messageId, double msgLat, double msgLon) {
+        messageIds.add(messageId);
+        lat += (msgLat - lat) / messageIds.size();
+        lon += (msgLon - lon) / messageIds.size();
+    }
+
+    public double getLat() {
+        return lat;
+    }
+
+    public double getLon() {
+        return lon;
+    }
+
+    public int getCount() {
+        return messageIds.size();
+    }
+
+    public List<String> getMessageIds() {
+        return messageIds;
+    }
+}
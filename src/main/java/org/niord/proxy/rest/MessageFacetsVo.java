@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.niord.proxy.rest;
+
+import org.niord.model.message.MainType;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The number of messages matching a search, per main type, per area and per active status.
+ * <p>
+ * The area counts include all areas of the area hierarchy, including the virtual "General" area.
+ */
+@SuppressWarnings("unused")
+public class MessageFacetsVo {
+
+    int total;
+    Map<MainType, Integer> mainTypes = new EnumMap<>(MainType.class);
+    Map<Integer, Integer> areas = new HashMap<>();
+    int active;
+    int inactive;
+
+    /** No-arg constructor **/
+    public MessageFacetsVo() {
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public Map<MainType, Integer> getMainTypes() {
+        return mainTypes;
+    }
+
+    public Map<Integer, Integer> getAreas() {
+        return areas;
+    }
+
+    public int getActive() {
+        return active;
+    }
+
+    public int getInactive() {
+        return inactive;
+    }
+}
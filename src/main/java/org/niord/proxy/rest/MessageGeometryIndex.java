@@ -0,0 +1,290 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.niord.proxy.rest;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import org.niord.proxy.util.GeoUtils;
+import org.niord.proxy.util.JtsConverter;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Immutable index of the JTS geometries of the cached messages.
+ * <p>
+ * The index is computed once every time the message list is updated, and holds the
+ * geometries of each message along with the pre-computed envelope and centroid of all the
+ * geometries, and an R-tree spatial index of all the geometries.
+ */
+@SuppressWarnings("unused")
+public class MessageGeometryIndex {
+
+    public static final MessageGeometryIndex EMPTY = new MessageGeometryIndex(Collections.emptyMap());
+
+    /** The initial search radius used when searching for the nearest messages without a max distance **/
+    static final double INITIAL_SEARCH_RADIUS_NM = 50.0;
+
+    private final Map<String, List<Geometry>> geometries;
+    private final Map<String, Envelope> envelopes = new HashMap<>();
+    private final Map<String, Coordinate> centroids = new HashMap<>();
+    private final STRtree spatialIndex = new STRtree();
+
+
+    /**
+     * Constructor
+     * @param geometries the JTS geometries of the messages, keyed by message ID
+     */
+    public MessageGeometryIndex(Map<String, List<Geometry>> geometries) {
+        this.geometries = geometries;
+
+        // Compute the envelope of each message.
+        // NB: JTS caches the envelope of each geometry, so these are computed once as well
+        geometries.forEach((messageId, messageGeometries) -> {
+            Envelope envelope = new Envelope();
+            messageGeometries.forEach(g -> envelope.expandToInclude(g.getEnvelopeInternal()));
+            envelopes.put(messageId, envelope);
+            computeCentroid(messageGeometries).ifPresent(c -> centroids.put(messageId, c));
+            messageGeometries.forEach(g -> spatialIndex.insert(g.getEnvelopeInternal(), new IndexedGeometry(messageId, g)));
+        });
+
+        // Build the spatial index up-front, since building it lazily upon the first query is not thread-safe
+        spatialIndex.build();
+    }
+
+
+    /**
+     * Returns the geometries of the message with the given ID, or null if undefined
+     * @param messageId the message ID
+     * @return the geometries of the message with the given ID
+     */
+    public List<Geometry> getGeometries(String messageId) {
+        return geometries.get(messageId);
+    }
+
+
+    /**
+     * Returns the envelope of all geometries of the message with the given ID, or null if undefined
+     * @param messageId the message ID
+     * @return the envelope of all geometries of the message with the given ID
+     */
+    public Envelope getEnvelope(String messageId) {
+        return envelopes.get(messageId);
+    }
+
+
+    /**
+     * Returns the centroid of all geometries of the message with the given ID, or null if undefined
+     * @param messageId the message ID
+     * @return the centroid of all geometries of the message with the given ID
+     */
+    public Coordinate getCentroid(String messageId) {
+        return centroids.get(messageId);
+    }
+
+
+    /** Computes the centroid of the geometries **/
+    private Optional<Coordinate> computeCentroid(List<Geometry> messageGeometries) {
+        try {
+            Geometry geometry = messageGeometries.size() == 1
+                    ? messageGeometries.get(0)
+                    : messageGeometries.get(0).getFactory().buildGeometry(messageGeometries);
+            Point centroid = geometry.getCentroid();
+            if (!centroid.isEmpty()) {
+                return Optional.of(centroid.getCoordinate());
+            }
+        } catch (Exception ignored) {
+        }
+        return Optional.empty();
+    }
+
+
+    /**
+     * Returns if any of the geometries of the message is contained within the given rectangular extent.
+     * <p>
+     * For an axis-aligned rectangle, a geometry is contained in the rectangle exactly when its envelope is,
+     * so the test only involves envelope comparisons.
+     *
+     * @param messageId the message ID
+     * @param extent the rectangular extent
+     * @return if any of the geometries of the message is contained within the extent
+     */
+    public boolean anyWithinExtent(String messageId, Envelope extent) {
+        Envelope envelope = envelopes.get(messageId);
+        if (envelope == null || !extent.intersects(envelope)) {
+            return false;
+        } else if (extent.contains(envelope)) {
+            return true;
+        }
+        return geometries.get(messageId).stream()
+                .anyMatch(g -> extent.contains(g.getEnvelopeInternal()));
+    }
+
+
+    /**
+     * Returns if any of the geometries of the message is contained within the given geometry.
+     * The envelopes are used for discarding geometries before the exact test.
+     *
+     * @param messageId the message ID
+     * @param geometry the geometry
+     * @return if any of the geometries of the message is contained within the given geometry
+     */
+    public boolean anyWithinGeometry(String messageId, Geometry geometry) {
+        Envelope envelope = envelopes.get(messageId);
+        Envelope extent = geometry.getEnvelopeInternal();
+        if (envelope == null || !extent.intersects(envelope)) {
+            return false;
+        }
+        return geometries.get(messageId).stream()
+                .filter(g -> extent.contains(g.getEnvelopeInternal()))
+                .anyMatch(geometry::contains);
+    }
+
+
+    /**
+     * Calls the consumer with the message ID and geometry of all geometries whose envelope intersects the given envelope
+     * @param envelope the envelope
+     * @param consumer the consumer to call
+     */
+    public void forEachGeometry(Envelope envelope, BiConsumer<String, Geometry> consumer) {
+        for (Object item : spatialIndex.query(envelope)) {
+            IndexedGeometry indexedGeometry = (IndexedGeometry) item;
+            consumer.accept(indexedGeometry.messageId, indexedGeometry.geometry);
+        }
+    }
+
+
+    /**
+     * Returns the messages nearest to the given position, ordered by distance.
+     * <p>
+     * If a max distance is specified, only messages within this distance are included.
+     * Otherwise, the search radius is expanded until enough messages have been found.
+     *
+     * @param lat the latitude of the position
+     * @param lon the longitude of the position
+     * @param maxDistance the optional max distance in nautical miles
+     * @param limit the max number of messages to return
+     * @param messageFilter only include messages with IDs accepted by this filter
+     * @return the messages nearest to the given position, ordered by distance
+     */
+    public List<MessageDistance> getNearestMessages(double lat, double lon, Double maxDistance, int limit, Predicate<String> messageFilter) {
+
+        Point point = (Point) JtsConverter.toJtsPoint(lat, lon);
+        double radius = maxDistance != null
+                ? maxDistance
+                : Math.min(INITIAL_SEARCH_RADIUS_NM, GeoUtils.MAX_DISTANCE_NM);
+
+        while (true) {
+            // Compute the distance to all messages within the search radius
+            Map<String, Double> distances = new HashMap<>();
+            for (Object item : spatialIndex.query(GeoUtils.envelopeNm(lat, lon, radius))) {
+                IndexedGeometry indexedGeometry = (IndexedGeometry) item;
+                if (messageFilter.test(indexedGeometry.messageId)) {
+                    double distance = GeoUtils.distanceNm(point, indexedGeometry.geometry);
+                    if (distance <= radius) {
+                        distances.merge(indexedGeometry.messageId, distance, Math::min);
+                    }
+                }
+            }
+
+            // Since all messages within the search radius have been found, the nearest
+            // messages are among these if there are enough of them
+            if (maxDistance != null || distances.size() >= limit || radius >= GeoUtils.MAX_DISTANCE_NM) {
+                return distances.entrySet().stream()
+                        .map(e -> new MessageDistance(e.getKey(), e.getValue()))
+                        .sorted(Comparator.comparingDouble(MessageDistance::getDistance))
+                        .limit(limit)
+                        .collect(Collectors.toList());
+            }
+            radius = Math.min(radius * 4.0, GeoUtils.MAX_DISTANCE_NM);
+        }
+    }
+
+
+    /**
+     * Returns the messages with geometries intersecting the route corridor, ordered by the
+     * distance along the route.
+     *
+     * @param corridor the route corridor
+     * @param messageFilter only include messages with IDs accepted by this filter
+     * @return the messages with geometries intersecting the route corridor
+     */
+    public List<MessageDistance> getMessagesAlongRoute(RouteCorridor corridor, Predicate<String> messageFilter) {
+
+        // Look up candidate geometries using the envelopes of the individual route segments
+        Set<IndexedGeometry> candidates = new HashSet<>();
+        for (Envelope segmentEnvelope : corridor.getSegmentEnvelopes()) {
+            for (Object item : spatialIndex.query(segmentEnvelope)) {
+                candidates.add((IndexedGeometry) item);
+            }
+        }
+
+        Map<String, Double> distances = new HashMap<>();
+        candidates.stream()
+                .filter(ig -> messageFilter.test(ig.messageId))
+                .filter(ig -> corridor.intersects(ig.geometry))
+                .forEach(ig -> distances.merge(ig.messageId, corridor.distanceAlongRoute(ig.geometry), Math::min));
+
+        return distances.entrySet().stream()
+                .map(e -> new MessageDistance(e.getKey(), e.getValue()))
+                .sorted(Comparator.comparingDouble(MessageDistance::getDistance))
+                .collect(Collectors.toList());
+    }
+
+
+    /** A geometry stored in the spatial index **/
+    private static class IndexedGeometry {
+        final String messageId;
+        final Geometry geometry;
+
+        IndexedGeometry(String messageId, Geometry geometry) {
+            this.messageId = messageId;
+            this.geometry = geometry;
+        }
+    }
+
+
+    /** The distance from a position, or along a route, to a message **/
+    public static class MessageDistance {
+        final String messageId;
+        final double distance;
+
+        public MessageDistance(String messageId, double distance) {
+            this.messageId = messageId;
+            this.distance = distance;
+        }
+
+        public String getMessageId() {
+            return messageId;
+        }
+
+        public double getDistance() {
+            return distance;
+        }
+    }
+}
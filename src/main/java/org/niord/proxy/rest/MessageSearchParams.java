@@ -0,0 +1,223 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.niord.proxy.rest;
+
+import com.vividsolutions.jts.geom.Envelope;
+import org.apache.commons.lang.StringUtils;
+import org.niord.model.message.MainType;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Defines the message search parameters
+ */
+@SuppressWarnings("unused")
+public class MessageSearchParams {
+
+    private String language;
+    private String query;
+    private Set<MainType> mainTypes;
+    private Set<Integer> areaIds;
+    private String wkt;
+    private Double minLat;
+    private Double minLon;
+    private Double maxLat;
+    private Double maxLon;
+    private boolean active;
+    private MessageSort sort;
+    private boolean descending;
+    private Integer limit;
+
+
+    /**
+     * Returns if a geographical extent has been specified
+     * @return if a geographical extent has been specified
+     */
+    public boolean hasExtent() {
+        return minLat != null || minLon != null || maxLat != null || maxLon != null;
+    }
+
+
+    /**
+     * Returns the geographical extent as a JTS envelope, or null if undefined.
+     * If the extent crosses the anti-meridian, i.e. minLon &gt; maxLon, null is returned as well.
+     * @return the geographical extent as a JTS envelope
+     */
+    public Envelope getExtentEnvelope() {
+        if (!hasExtent() || crossesAntiMeridian()) {
+            return null;
+        }
+        return new Envelope(
+                minLon != null ? minLon : -180.0,
+                maxLon != null ? maxLon : 180.0,
+                minLat != null ? minLat : -90.0,
+                maxLat != null ? maxLat : 90.0);
+    }
+
+
+    /**
+     * Returns the geographical extent as a list of JTS envelopes, which is empty if the extent is undefined.
+     * If the extent crosses the anti-meridian, it is split into the envelopes on either side of it.
+     * @return the geographical extent as a list of JTS envelopes
+     */
+    public List<Envelope> getExtentEnvelopes() {
+        if (!hasExtent()) {
+            return Collections.emptyList();
+        } else if (!crossesAntiMeridian()) {
+            return Collections.singletonList(getExtentEnvelope());
+        }
+        double minY = minLat != null ? minLat : -90.0;
+        double maxY = maxLat != null ? maxLat : 90.0;
+        return Arrays.asList(
+                new Envelope(minLon, 180.0, minY, maxY),
+                new Envelope(-180.0, maxLon, minY, maxY));
+    }
+
+
+    /**
+     * Returns if the geographical extent crosses the anti-meridian
+     * @return if the geographical extent crosses the anti-meridian
+     */
+    public boolean crossesAntiMeridian() {
+        return minLon != null && maxLon != null && minLon > maxLon;
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return "{" +
+                "language='" + language + '\'' +
+                (StringUtils.isNotBlank(query) ? ", query='" + query + '\'' : "") +
+                ", mainTypes=" + mainTypes +
+                ", areaIds=" + areaIds +
+                ", wkt='" + wkt + '\'' +
+                (hasExtent() ? ", extent=[" + minLat + "," + minLon + "," + maxLat + "," + maxLon + "]" : "") +
+                ", active=" + active +
+                (sort != null ? ", sort=" + sort + (descending ? " DESC" : " ASC") : "") +
+                (limit != null ? ", limit=" + limit : "") +
+                '}';
+    }
+
+
+    /*****************************************/
+    /** Method chaining Getters and Setters **/
+    /*****************************************/
+
+    public String getLanguage() {
+        return language;
+    }
+
+    public MessageSearchParams language(String language) {
+        this.language = language;
+        return this;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public MessageSearchParams query(String query) {
+        this.query = query;
+        return this;
+    }
+
+    public Set<MainType> getMainTypes() {
+        return mainTypes;
+    }
+
+    public MessageSearchParams mainTypes(Set<MainType> mainTypes) {
+        this.mainTypes = mainTypes;
+        return this;
+    }
+
+    public Set<Integer> getAreaIds() {
+        return areaIds;
+    }
+
+    public MessageSearchParams areaIds(Set<Integer> areaIds) {
+        this.areaIds = areaIds;
+        return this;
+    }
+
+    public String getWkt() {
+        return wkt;
+    }
+
+    public MessageSearchParams wkt(String wkt) {
+        this.wkt = wkt;
+        return this;
+    }
+
+    public Double getMinLat() {
+        return minLat;
+    }
+
+    public Double getMinLon() {
+        return minLon;
+    }
+
+    public Double getMaxLat() {
+        return maxLat;
+    }
+
+    public Double getMaxLon() {
+        return maxLon;
+    }
+
+    public MessageSearchParams extent(Double minLat, Double minLon, Double maxLat, Double maxLon) {
+        this.minLat = minLat;
+        this.minLon = minLon;
+        this.maxLat = maxLat;
+        this.maxLon = maxLon;
+        return this;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public MessageSearchParams active(boolean active) {
+        this.active = active;
+        return this;
+    }
+
+    public MessageSort getSort() {
+        return sort;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    public MessageSearchParams sort(MessageSort sort, boolean descending) {
+        this.sort = sort;
+        this.descending = descending;
+        return this;
+    }
+
+    public Integer getLimit() {
+        return limit;
+    }
+
+    public MessageSearchParams limit(Integer limit) {
+        this.limit = limit;
+        return this;
+    }
+}
@@ -17,17 +17,29 @@ package org.niord.proxy.rest;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygonal;
+import com.vividsolutions.jts.operation.valid.IsValidOp;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
 import org.apache.commons.lang.StringUtils;
 import org.niord.model.DataFilter;
+import org.niord.model.geojson.FeatureCollectionVo;
+import org.niord.model.geojson.FeatureVo;
 import org.niord.model.message.AreaVo;
 import org.niord.model.message.MainType;
 import org.niord.model.message.MessageVo;
+import org.niord.model.message.Status;
+import org.niord.proxy.conf.LocaleResourceService;
 import org.niord.proxy.conf.Settings;
+import org.niord.proxy.util.GeoUtils;
 import org.niord.proxy.util.JtsConverter;
 import org.niord.proxy.util.WebUtils;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.ejb.Lock;
 import javax.ejb.LockType;
 import javax.ejb.Schedule;
@@ -36,16 +48,28 @@ import javax.ejb.Startup;
 import javax.inject.Inject;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
-import java.util.ResourceBundle;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * The main service for accessing and caching messages from the NW-NM service
@@ -65,16 +89,55 @@ public class MessageService extends AbstractNiordService {
     public static final DataFilter MESSAGE_DETAILS_FILTER =
             DataFilter.get().fields("Message.details", "Message.geometry", "Area.parent", "Category.parent");
 
+    /** The max number of concurrent message requests issued to Niord when resolving a batch of messages **/
+    static final int MAX_CONCURRENT_FETCHES = 4;
+
+    /** The max number of queued message requests to Niord. Further requests are executed by the calling thread **/
+    static final int MAX_QUEUED_FETCHES = 100;
+
+    /** The max number of message IDs in a batch lookup **/
+    public static final int MAX_BATCH_SIZE = 100;
+
+    /** The max number of route corridors to cache **/
+    static final int MAX_CACHED_ROUTE_CORRIDORS = 100;
+
+    /** Above this zoom level, message features are returned unsimplified **/
+    static final int MAX_SIMPLIFIED_ZOOM_LEVEL = 16;
+
+    /** The size, in pixels, of the grid cells used for clustering message markers **/
+    static final int CLUSTER_CELL_SIZE = 60;
+
+    /** The max zoom level used for clustering message markers **/
+    static final int MAX_CLUSTER_ZOOM_LEVEL = 22;
+
     @Inject
     Settings settings;
 
+    @Inject
+    LocaleResourceService localeResourceService;
+
     @Inject
     Logger log;
 
-    private List<MessageVo> messages = new ArrayList<>();
-    private Map<String, List<Geometry>> geometries = new HashMap<>();
+    @Inject
+    MessageArchiveService messageArchive;
+
+    private volatile MessageSnapshot snapshot = MessageSnapshot.EMPTY;
+    private final AtomicLong snapshotVersion = new AtomicLong();
+    private String messagesFingerprint;
     private List<RootArea> areaRoots = new ArrayList<>();
 
+    private ExecutorService fetchExecutor;
+
+    // Route corridors are cached since clients tend to query the same route repeatedly
+    private final Map<String, RouteCorridor> routeCorridors = Collections.synchronizedMap(
+            new LinkedHashMap<String, RouteCorridor>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, RouteCorridor> eldest) {
+                    return size() > MAX_CACHED_ROUTE_CORRIDORS;
+                }
+            });
+
 
     /** Initialize the service **/
     @PostConstruct
@@ -82,22 +145,50 @@ public class MessageService extends AbstractNiordService {
 
         // Update the "General" area with a unique ID and localized name
         GENERAL_AREA.setId(-999999);
-        Arrays.stream(settings.getLanguages()).forEach(lang -> {
-            // Look up the resource bundle
-            Locale locale = new Locale(lang);
-            ResourceBundle bundle = ResourceBundle.getBundle("MessageDetails", locale);
-            GENERAL_AREA.checkCreateDesc(lang).setName(bundle.getString("general_msgs"));
-        });
+        Arrays.stream(settings.getLanguages()).forEach(lang ->
+            GENERAL_AREA.checkCreateDesc(lang).setName(localeResourceService.getResources(lang).getString("general_msgs")));
 
 
+        // Used for fetching uncached messages concurrently from the NW-NM service. The queue is bounded,
+        // and when it is full, the requesting thread fetches the message itself, which throttles the request
+        fetchExecutor = new ThreadPoolExecutor(MAX_CONCURRENT_FETCHES, MAX_CONCURRENT_FETCHES,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED_FETCHES),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+
         // Fetch messages from the NW-NM service
         periodicFetchData();
     }
 
 
+    /** Shuts down the service **/
+    @PreDestroy
+    private void destroy() {
+        fetchExecutor.shutdownNow();
+    }
+
+
     /** Returns a reference to the messages **/
     public List<MessageVo> getMessages() {
-        return messages;
+        return snapshot.getMessages();
+    }
+
+
+    /** Returns the cached message with the given ID or short ID, or null if not cached **/
+    public MessageVo getCachedMessage(String messageId) {
+        return snapshot.getMessage(messageId);
+    }
+
+
+    /** Returns the geometry index of the cached messages **/
+    public MessageGeometryIndex getGeometryIndex() {
+        return snapshot.getGeometryIndex();
+    }
+
+
+    /** Returns the current snapshot of the cached messages **/
+    public MessageSnapshot getSnapshot() {
+        return snapshot;
     }
 
 
@@ -109,37 +200,391 @@ public class MessageService extends AbstractNiordService {
 
     /**
      * Returns a filtered set of messages
-     * @param language the language of the descriptive fields to include
-     * @param mainTypes the main types to include
-     * @param areaIds the area IDs of the messages to include
-     * @param wkt the geometric boundary of the messages to include
-     * @param active whether or not to only show messages that are currently active
+     * @param params the search parameters
      * @return the filtered set of messages
      */
-    public List<MessageVo> getMessages(String language, Set<MainType> mainTypes, Set<Integer> areaIds, String wkt, boolean active) throws Exception {
+    public List<MessageVo> getMessages(MessageSearchParams params) throws Exception {
 
-        language = settings.language(language);
+        String language = settings.language(params.getLanguage());
         DataFilter filter = MESSAGE_DETAILS_FILTER.lang(language);
 
-        Geometry geometry = StringUtils.isNotBlank(wkt)
-                ? JtsConverter.wktToJts(wkt)
+        MessageSnapshot snapshot = this.snapshot;
+
+        // Look up the messages matching the text query, if any, along with their relevance score
+        Map<String, Float> scores = getTextScores(snapshot, language, params);
+        Predicate<MessageVo> textAndGeometryFilter = getTextAndGeometryFilter(snapshot, params, scores);
+
+        // If a sort order is specified, walk the pre-sorted messages, so that only
+        // the first "limit" matching messages need to be filtered and copied
+        List<MessageVo> messages = params.getSort() != null
+                ? snapshot.getSortedMessages(params.getSort(), params.isDescending())
+                : snapshot.getMessages();
+
+        Stream<MessageVo> stream = messages.stream()
+                .filter(m -> filterByMainTypes(m, params.getMainTypes()))
+                .filter(m -> filterByAreaIds(m, params.getAreaIds()))
+                .filter(textAndGeometryFilter)
+                .filter(m -> filterByActiveStatus(m, params.isActive()));
+
+        // Without an explicit sort order, text search results are ranked by relevance
+        if (scores != null && params.getSort() == null) {
+            stream = stream.sorted(Comparator.comparing((MessageVo m) -> scores.get(m.getId())).reversed());
+        }
+
+        if (params.getLimit() != null && params.getLimit() >= 0) {
+            stream = stream.limit(params.getLimit());
+        }
+
+        List<MessageVo> result = stream
+                .map(m -> m.copy(filter))
+                .collect(Collectors.toList());
+
+        log.info(String.format("Search for %s -> returning %d messages", params, result.size()));
+
+        return result;
+    }
+
+
+    /**
+     * Returns the number of messages matching the search parameters per main type, per area
+     * and per active status.
+     * <p>
+     * Each facet is computed with all filters applied, except the filter of the facet itself,
+     * so that the counts reflect the result of changing the selection of the facet.
+     * No messages are copied in the process.
+     *
+     * @param params the search parameters
+     * @return the message facets
+     */
+    public MessageFacetsVo getFacets(MessageSearchParams params) throws Exception {
+
+        String language = settings.language(params.getLanguage());
+        MessageSnapshot snapshot = this.snapshot;
+        Map<String, Float> scores = getTextScores(snapshot, language, params);
+        Predicate<MessageVo> textAndGeometryFilter = getTextAndGeometryFilter(snapshot, params, scores);
+
+        MessageFacetsVo facets = new MessageFacetsVo();
+        for (MessageVo message : snapshot.getMessages()) {
+            if (!textAndGeometryFilter.test(message)) {
+                continue;
+            }
+            boolean mainTypeMatch = filterByMainTypes(message, params.getMainTypes());
+            boolean areaMatch = filterByAreaIds(message, params.getAreaIds());
+            boolean active = filterByActiveStatus(message, true);
+            boolean activeMatch = active || !params.isActive();
+
+            if (mainTypeMatch && areaMatch && activeMatch) {
+                facets.total++;
+            }
+            if (areaMatch && activeMatch && message.getMainType() != null) {
+                facets.mainTypes.merge(message.getMainType(), 1, Integer::sum);
+            }
+            if (mainTypeMatch && activeMatch && message.getAreas() != null) {
+                // Count each area of the hierarchy once per message
+                Set<Integer> areaIds = new HashSet<>();
+                for (AreaVo area : message.getAreas()) {
+                    for (AreaVo a = area; a != null; a = a.getParent()) {
+                        areaIds.add(a.getId());
+                    }
+                }
+                areaIds.forEach(id -> facets.areas.merge(id, 1, Integer::sum));
+            }
+            if (mainTypeMatch && areaMatch) {
+                if (active) {
+                    facets.active++;
+                } else {
+                    facets.inactive++;
+                }
+            }
+        }
+
+        log.info(String.format("Facets for %s -> %d matching messages", params, facets.total));
+
+        return facets;
+    }
+
+
+    /**
+     * Returns the relevance score of the messages matching the text query, or null if no query is specified
+     * @param snapshot the message snapshot
+     * @param language the language
+     * @param params the search parameters
+     * @return the relevance score of the messages matching the text query, keyed by message ID
+     */
+    private Map<String, Float> getTextScores(MessageSnapshot snapshot, String language, MessageSearchParams params) {
+        return StringUtils.isNotBlank(params.getQuery())
+                ? snapshot.getTextIndex().search(language, params.getQuery())
                 : null;
+    }
 
-        List<MessageVo> result = messages.stream()
-                .filter(m -> filterByMainTypes(m, mainTypes))
-                .filter(m -> filterByAreaIds(m, areaIds))
-                .filter(m -> filterByGeometry(m, geometry))
-                .filter(m -> filterByActiveStatus(m, active))
+
+    /**
+     * Returns a filter for the text query and the geometric boundary and extent of the search parameters
+     * @param snapshot the message snapshot
+     * @param params the search parameters
+     * @param scores the relevance scores of the messages matching the text query, or null if undefined
+     * @return the filter
+     */
+    private Predicate<MessageVo> getTextAndGeometryFilter(
+            MessageSnapshot snapshot, MessageSearchParams params, Map<String, Float> scores) throws Exception {
+
+        Geometry geometry = StringUtils.isNotBlank(params.getWkt())
+                ? JtsConverter.wktToJts(params.getWkt())
+                : null;
+
+        // Rectangular extents are tested using the pre-computed envelopes only. Extents crossing
+        // the anti-meridian cannot be represented by a single envelope, so they are tested exactly
+        Envelope extent = params.getExtentEnvelope();
+        Geometry wrappedExtent = params.crossesAntiMeridian()
+                ? JtsConverter.toJtsExtent(params.getMinLat(), params.getMinLon(), params.getMaxLat(), 180.0)
+                    .union(JtsConverter.toJtsExtent(params.getMinLat(), -180.0, params.getMaxLat(), params.getMaxLon()))
+                : null;
+
+        MessageGeometryIndex geometryIndex = snapshot.getGeometryIndex();
+        return m -> (scores == null || scores.containsKey(m.getId()))
+                && filterByGeometry(m, geometryIndex, geometry)
+                && filterByGeometry(m, geometryIndex, wrappedExtent)
+                && filterByExtent(m, geometryIndex, extent);
+    }
+
+
+    /**
+     * Returns the messages nearest to the given position, ordered by distance
+     * @param language the language of the descriptive fields to include
+     * @param lat the latitude of the position
+     * @param lon the longitude of the position
+     * @param maxDistance the optional max distance in nautical miles
+     * @param limit the max number of messages to return
+     * @param active whether or not to only include messages that are currently active
+     * @return the messages nearest to the given position
+     */
+    public List<MessageVo> getNearestMessages(String language, double lat, double lon, Double maxDistance, int limit, boolean active) {
+
+        language = settings.language(language);
+        DataFilter filter = MESSAGE_DETAILS_FILTER.lang(language);
+
+        MessageSnapshot snapshot = this.snapshot;
+        List<MessageVo> result = snapshot.getGeometryIndex()
+                .getNearestMessages(lat, lon, maxDistance, limit,
+                        id -> snapshot.getMessage(id) != null && filterByActiveStatus(snapshot.getMessage(id), active))
+                .stream()
+                .map(md -> snapshot.getMessage(md.getMessageId()))
                 .map(m -> m.copy(filter))
                 .collect(Collectors.toList());
 
-        log.info(String.format("Search for language=%s, mainTypes=%s, areaIds=%s, wkt=%s -> returning %d messages",
-                language, mainTypes, areaIds, wkt, result.size()));
+        log.info(String.format("Search for nearest messages at lat=%.4f, lon=%.4f, maxDistance=%s, limit=%d -> returning %d messages",
+                lat, lon, maxDistance, limit, result.size()));
+
+        return result;
+    }
+
+
+    /**
+     * Returns the messages with geometries intersecting the corridor along the given route,
+     * ordered by the distance along the route
+     * @param language the language of the descriptive fields to include
+     * @param wkt the route as a WKT line string
+     * @param width the width of the corridor in nautical miles
+     * @param active whether or not to only include messages that are currently active
+     * @return the messages along the route
+     */
+    public List<MessageVo> getMessagesAlongRoute(String language, String wkt, double width, boolean active) throws Exception {
+
+        language = settings.language(language);
+        DataFilter filter = MESSAGE_DETAILS_FILTER.lang(language);
+
+        RouteCorridor corridor = getRouteCorridor(wkt, width);
+
+        MessageSnapshot snapshot = this.snapshot;
+        List<MessageVo> result = snapshot.getGeometryIndex()
+                .getMessagesAlongRoute(corridor,
+                        id -> snapshot.getMessage(id) != null && filterByActiveStatus(snapshot.getMessage(id), active))
+                .stream()
+                .map(md -> snapshot.getMessage(md.getMessageId()))
+                .map(m -> m.copy(filter))
+                .collect(Collectors.toList());
+
+        log.info(String.format("Search for messages along route with %d vertices, width=%.2f -> returning %d messages",
+                corridor.getRoute().getNumPoints(), width, result.size()));
+
+        return result;
+    }
+
+
+    /**
+     * Returns the, possibly cached, corridor for the given route
+     * @param wkt the route as a WKT line string
+     * @param width the width of the corridor in nautical miles
+     * @return the corridor for the given route
+     */
+    private RouteCorridor getRouteCorridor(String wkt, double width) throws Exception {
+        if (StringUtils.isBlank(wkt) || width <= 0.0) {
+            throw new IllegalArgumentException("A route and a positive corridor width must be specified");
+        }
+
+        String key = wkt.trim() + "|" + width;
+        RouteCorridor corridor = routeCorridors.get(key);
+        if (corridor == null) {
+            Geometry route = JtsConverter.wktToJts(wkt);
+            if (!(route instanceof LineString)) {
+                throw new IllegalArgumentException("The route must be a line string: " + wkt);
+            }
+            corridor = new RouteCorridor((LineString) route, width);
+            routeCorridors.put(key, corridor);
+        }
+        return corridor;
+    }
+
 
+    /**
+     * Returns the features of all cached messages as a GeoJSON feature collection.
+     * <p>
+     * The geometries are simplified, using a topology-preserving simplification, to the
+     * resolution of the given zoom level. The result is computed once per zoom level and
+     * language, and cached until the message list is updated.
+     *
+     * @param language the language of the descriptive feature properties
+     * @param zoom the zoom level
+     * @return the features of all cached messages
+     */
+    public FeatureCollectionVo getFeatureCollection(String language, int zoom) {
+        String lang = settings.language(language);
+        int zoomLevel = Math.max(0, Math.min(zoom, MAX_SIMPLIFIED_ZOOM_LEVEL + 1));
+
+        MessageSnapshot snapshot = this.snapshot;
+        return snapshot.getFeatureCollections().computeIfAbsent(
+                zoomLevel + "_" + lang,
+                key -> computeFeatureCollection(snapshot, lang, zoomLevel));
+    }
+
+
+    /**
+     * Computes the simplified feature collection of all cached messages for the given zoom level and language
+     * @param snapshot the message snapshot
+     * @param language the language of the descriptive feature properties
+     * @param zoom the zoom level
+     * @return the feature collection
+     */
+    private FeatureCollectionVo computeFeatureCollection(MessageSnapshot snapshot, String language, int zoom) {
+        long t0 = System.currentTimeMillis();
+
+        // Simplify geometries by up to a pixel at the given zoom level
+        double tolerance = zoom > MAX_SIMPLIFIED_ZOOM_LEVEL ? 0.0 : GeoUtils.degreesPerPixel(zoom);
+
+        MessageGeometryIndex geometryIndex = snapshot.getGeometryIndex();
+        List<FeatureVo> features = new ArrayList<>();
+        for (MessageVo message : snapshot.getMessages()) {
+            List<Geometry> messageGeometries = geometryIndex.getGeometries(message.getId());
+            if (messageGeometries == null) {
+                continue;
+            }
+            for (Geometry geometry : messageGeometries) {
+                Geometry simplified = tolerance > 0.0
+                        ? TopologyPreservingSimplifier.simplify(geometry, tolerance)
+                        : geometry;
+
+                FeatureVo feature = new FeatureVo();
+                Map<String, Object> properties = new HashMap<>();
+                if (geometry.getUserData() instanceof FeatureVo) {
+                    FeatureVo origFeature = (FeatureVo) geometry.getUserData();
+                    feature.setId(origFeature.getId());
+                    if (origFeature.getProperties() != null) {
+                        properties.putAll(origFeature.getProperties());
+                    }
+                }
+                properties.put("messageId", message.getId());
+                properties.put("shortId", message.getShortId());
+                properties.put("mainType", message.getMainType());
+                if (message.getDesc(language) != null) {
+                    properties.put("title", message.getDesc(language).getTitle());
+                }
+                feature.setProperties(properties);
+                feature.setGeometry(JtsConverter.fromJts(simplified));
+                features.add(feature);
+            }
+        }
+
+        FeatureCollectionVo featureCollection = new FeatureCollectionVo();
+        featureCollection.setFeatures(features.toArray(new FeatureVo[features.size()]));
+
+        log.info(String.format("Computed %d features for zoom level %d and language %s in %d ms",
+                features.size(), zoom, language, System.currentTimeMillis() - t0));
+
+        return featureCollection;
+    }
+
+
+    /**
+     * Returns the message marker clusters for the given zoom level within the given extent.
+     * <p>
+     * The messages are clustered by their centroids using a grid of {@code CLUSTER_CELL_SIZE}
+     * pixels at the given zoom level. The clusters are computed once per zoom level and main
+     * types, and cached until the message list is updated.
+     *
+     * @param zoom the zoom level
+     * @param mainTypes the main types to include
+     * @param minLat the minimum latitude of the extent
+     * @param minLon the minimum longitude of the extent
+     * @param maxLat the maximum latitude of the extent
+     * @param maxLon the maximum longitude of the extent
+     * @return the message marker clusters
+     */
+    public List<MessageClusterVo> getClusters(int zoom, Set<MainType> mainTypes,
+                                              Double minLat, Double minLon, Double maxLat, Double maxLon) {
+
+        int zoomLevel = Math.max(0, Math.min(zoom, MAX_CLUSTER_ZOOM_LEVEL));
+        Set<MainType> types = mainTypes == null || mainTypes.isEmpty()
+                ? EnumSet.allOf(MainType.class)
+                : EnumSet.copyOf(mainTypes);
+
+        MessageSnapshot snapshot = this.snapshot;
+        List<MessageClusterVo> result = snapshot.getClusters().computeIfAbsent(
+                zoomLevel + "_" + types,
+                key -> computeClusters(snapshot, zoomLevel, types));
+
+        // Extents crossing the anti-meridian are split into the envelopes on either side of it
+        List<Envelope> extents = new MessageSearchParams().extent(minLat, minLon, maxLat, maxLon).getExtentEnvelopes();
+        if (!extents.isEmpty()) {
+            result = result.stream()
+                    .filter(c -> extents.stream().anyMatch(e -> e.contains(c.getLon(), c.getLat())))
+                    .collect(Collectors.toList());
+        }
         return result;
     }
 
 
+    /**
+     * Computes the message marker clusters for the given zoom level
+     * @param snapshot the message snapshot
+     * @param zoom the zoom level
+     * @param mainTypes the main types to include
+     * @return the message marker clusters
+     */
+    private List<MessageClusterVo> computeClusters(MessageSnapshot snapshot, int zoom, Set<MainType> mainTypes) {
+        long t0 = System.currentTimeMillis();
+
+        double worldSize = 256.0 * Math.pow(2, zoom);
+        MessageGeometryIndex geometryIndex = snapshot.getGeometryIndex();
+        Map<Long, MessageClusterVo> cells = new LinkedHashMap<>();
+        snapshot.getMessages().stream()
+                .filter(m -> filterByMainTypes(m, mainTypes))
+                .forEach(m -> {
+                    Coordinate centroid = geometryIndex.getCentroid(m.getId());
+                    if (centroid != null) {
+                        long cellX = (long) (GeoUtils.mercatorX(centroid.x) * worldSize / CLUSTER_CELL_SIZE);
+                        long cellY = (long) (GeoUtils.mercatorY(centroid.y) * worldSize / CLUSTER_CELL_SIZE);
+                        cells.computeIfAbsent((cellY << 32) | cellX, key -> new MessageClusterVo())
+                                .addMessage(m.getId(), centroid.y, centroid.x);
+                    }
+                });
+
+        log.info(String.format("Computed %d clusters for zoom level %d in %d ms",
+                cells.size(), zoom, System.currentTimeMillis() - t0));
+
+        return new ArrayList<>(cells.values());
+    }
+
+
     /**
      * Returns the message with the given ID
      * @param language the language of the descriptive fields to include
@@ -148,24 +593,14 @@ public class MessageService extends AbstractNiordService {
      */
     public MessageVo getMessageDetails(String language, String messageId) {
 
-        // First, check if the message is already cached
-        MessageVo message = messages.stream()
-                .filter(m -> messageId.equals(m.getId()) || messageId.equals(m.getShortId()))
-                .findFirst()
-                .orElse(null);
-
+        // First, check if the message is already cached or archived
+        MessageVo message = getCachedOrArchivedMessage(snapshot, messageId);
 
         // If not cached here, get it from the NW-NM service
         if (message == null) {
-
-            message = executeNiordJsonRequest(
-                    getMessageUrl(messageId),
-                    json -> new ObjectMapper().readValue(json, MessageVo.class));
-
-            checkRewriteRepoPath(message);
+            message = fetchMessageDetails(messageId);
         }
 
-
         if (message == null) {
             return null;
         } else {
@@ -175,6 +610,105 @@ public class MessageService extends AbstractNiordService {
     }
 
 
+    /**
+     * Returns the messages with the given IDs in the order of the IDs.
+     * Messages that are not cached are fetched concurrently from the NW-NM service.
+     * Unknown message IDs are skipped.
+     *
+     * @param language the language of the descriptive fields to include
+     * @param messageIds the IDs of the messages
+     * @return the messages with the given IDs
+     * @throws IllegalArgumentException if more than {@link #MAX_BATCH_SIZE} message IDs are specified
+     */
+    public List<MessageVo> getMessageDetails(String language, List<String> messageIds) {
+
+        if (messageIds == null || messageIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        if (messageIds.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("At most " + MAX_BATCH_SIZE + " message IDs may be specified");
+        }
+
+        // Resolve all cached and archived messages in one pass and start fetching the rest
+        MessageSnapshot snapshot = this.snapshot;
+        Map<String, CompletableFuture<MessageVo>> result = new LinkedHashMap<>();
+        new LinkedHashSet<>(messageIds).stream()
+                .filter(Objects::nonNull)
+                .forEach(messageId -> {
+                    MessageVo message = getCachedOrArchivedMessage(snapshot, messageId);
+                    result.put(messageId, message != null
+                            ? CompletableFuture.completedFuture(message)
+                            : CompletableFuture.supplyAsync(() -> fetchMessageDetails(messageId), fetchExecutor));
+                });
+
+        DataFilter filter = MESSAGE_DETAILS_FILTER.lang(language);
+        List<MessageVo> messages = result.values().stream()
+                .map(CompletableFuture::join)
+                .filter(Objects::nonNull)
+                .map(m -> m.copy(filter))
+                .collect(Collectors.toList());
+
+        log.info(String.format("Batch lookup for language=%s, %d message IDs -> returning %d messages",
+                language, result.size(), messages.size()));
+
+        return messages;
+    }
+
+
+    /**
+     * Returns the message with the given ID from the message snapshot, or from the archive
+     * of messages that are no longer active
+     * @param snapshot the message snapshot
+     * @param messageId the ID or short ID of the message
+     * @return the message with the given ID, or null if not found
+     */
+    private MessageVo getCachedOrArchivedMessage(MessageSnapshot snapshot, String messageId) {
+        MessageVo message = snapshot.getMessage(messageId);
+        return message != null ? message : messageArchive.getMessage(messageId);
+    }
+
+
+    /**
+     * Re-fetches the messages that have dropped out of the active message list from the NW-NM service,
+     * so that they are archived with their actual status, e.g. expired or cancelled.
+     * Messages that cannot be re-fetched are archived with status {@link Status#EXPIRED}.
+     * @param messages the messages that are no longer active
+     * @return the messages to archive
+     */
+    private List<MessageVo> refreshInactiveMessages(List<MessageVo> messages) {
+        List<CompletableFuture<MessageVo>> refreshed = messages.stream()
+                .map(m -> CompletableFuture.supplyAsync(() -> fetchMessageDetails(m.getId()), fetchExecutor)
+                        .thenApply(fetched -> {
+                            if (fetched != null) {
+                                return fetched;
+                            }
+                            if (m.getStatus() == Status.PUBLISHED) {
+                                m.setStatus(Status.EXPIRED);
+                            }
+                            return m;
+                        }))
+                .collect(Collectors.toList());
+
+        return refreshed.stream()
+                .map(CompletableFuture::join)
+                .collect(Collectors.toList());
+    }
+
+
+    /**
+     * Fetches the message with the given ID from the NW-NM service
+     * @param messageId the ID of the message
+     * @return the message with the given ID, or null if not found
+     */
+    private MessageVo fetchMessageDetails(String messageId) {
+        MessageVo message = executeNiordJsonRequest(
+                getMessageUrl(messageId),
+                json -> new ObjectMapper().readValue(json, MessageVo.class));
+
+        return checkRewriteRepoPath(message);
+    }
+
+
     /**
      * Rewrite messages fetched from Niord and handle proxying of files.
      * @param message the message to rewrite
@@ -235,16 +769,28 @@ public class MessageService extends AbstractNiordService {
     /**
      * Filters messages by their geometry boundary
      * @param message the message
+     * @param geometryIndex the message geometry index
      * @param geometry the JTS boundary that the message must be within
      * @return if the message is included by the filter
      */
-    private boolean filterByGeometry(MessageVo message, Geometry geometry) {
-        if (geometry != null) {
-            List<Geometry> msgGeometries = geometries.get(message.getId());
-            if (msgGeometries != null) {
-                return msgGeometries.stream()
-                        .anyMatch(geometry::contains);
-            }
+    private boolean filterByGeometry(MessageVo message, MessageGeometryIndex geometryIndex, Geometry geometry) {
+        if (geometry != null && geometryIndex.getGeometries(message.getId()) != null) {
+            return geometryIndex.anyWithinGeometry(message.getId(), geometry);
+        }
+        return true;
+    }
+
+
+    /**
+     * Filters messages by a rectangular extent
+     * @param message the message
+     * @param geometryIndex the message geometry index
+     * @param extent the rectangular extent that the message must be within
+     * @return if the message is included by the filter
+     */
+    private boolean filterByExtent(MessageVo message, MessageGeometryIndex geometryIndex, Envelope extent) {
+        if (extent != null && geometryIndex.getGeometries(message.getId()) != null) {
+            return geometryIndex.anyWithinExtent(message.getId(), extent);
         }
         return true;
     }
@@ -295,14 +841,25 @@ public class MessageService extends AbstractNiordService {
         }
 
 
-        // Load all active messages
+        // Load all active messages. If the message list is unchanged since the last fetch, the current
+        // snapshot is kept, so that data cached for the snapshot version remains valid.
+        // The fingerprint is only recorded once the snapshot has been successfully updated
+        String[] fingerprint = new String[1];
         List<MessageVo> messages = executeNiordJsonRequest(
                 getActiveMessagesUrl(),
-                json -> new ObjectMapper().readValue(json, new TypeReference<List<MessageVo>>(){})
+                json -> {
+                    fingerprint[0] = WebUtils.sha1Hex(json) + "_" + areaRoots.size();
+                    if (fingerprint[0].equals(messagesFingerprint)) {
+                        log.fine("Message list unchanged");
+                        return null;
+                    }
+                    return new ObjectMapper().readValue(json, new TypeReference<List<MessageVo>>(){});
+                }
         );
 
         if (messages != null) {
             updatePublishedMessages(messages);
+            messagesFingerprint = fingerprint[0];
         }
     }
 
@@ -317,25 +874,22 @@ public class MessageService extends AbstractNiordService {
         // First, check if we need to rewrite the repository paths
         messages.forEach(this::checkRewriteRepoPath);
 
-        // Convert the message geometries to JTS geometries
-        // This is a fairly expensive operation, so we only want to do it once and cache the result
+        // Convert the message geometries to JTS geometries, along with their envelopes and validity.
+        // This is a fairly expensive operation, so it is performed in parallel, and only once per message list
+        long t0 = System.currentTimeMillis();
+        List<GeometryConversion> conversions = messages.parallelStream()
+                .map(this::convertGeometries)
+                .collect(Collectors.toList());
+
         Map<String, List<Geometry>> geometries = new HashMap<>();
-        messages.forEach(m -> {
-            List<Geometry> messageGeometries = new ArrayList<>();
-            if (m.getParts() != null) {
-                m.getParts().stream()
-                        .filter(p -> p.getGeometry() != null && p.getGeometry().getFeatures() != null)
-                        .flatMap(p -> Arrays.stream(p.getGeometry().getFeatures()))
-                        .filter(f -> f.getGeometry() != null)
-                        .forEach(f -> {
-                            try {
-                                messageGeometries.add(JtsConverter.toJts(f.getGeometry()));
-                            } catch (Exception ignored) {
-                            }
-                        });
+        Map<String, List<String>> geometryErrors = new HashMap<>();
+        conversions.forEach(c -> {
+            if (!c.geometries.isEmpty()) {
+                geometries.put(c.messageId, c.geometries);
             }
-            if (!messageGeometries.isEmpty()) {
-                geometries.put(m.getId(), messageGeometries);
+            if (!c.errors.isEmpty()) {
+                geometryErrors.put(c.messageId, c.errors);
+                log.warning(String.format("Geometry errors for message %s: %s", c.messageId, c.errors));
             }
         });
 
@@ -343,9 +897,76 @@ public class MessageService extends AbstractNiordService {
         // If there are any general messages present (messages without an area), add a virtual "General" area
         checkAddGeneralAreas(messages);
 
-        // Ready to update our local fields
-        this.messages = messages;
-        this.geometries = geometries;
+        // Share identical areas, categories and description strings between the messages
+        new MessageCanonicalizer().canonicalize(messages);
+
+        // Archive the messages that are no longer active, and un-archive the ones that have become active again
+        Set<String> messageIds = messages.stream()
+                .map(MessageVo::getId)
+                .collect(Collectors.toSet());
+        List<MessageVo> inactiveMessages = snapshot.getMessages().stream()
+                .filter(m -> !messageIds.contains(m.getId()))
+                .collect(Collectors.toList());
+        messageArchive.archive(refreshInactiveMessages(inactiveMessages));
+        messageArchive.remove(messageIds);
+
+        // Index the message texts, re-using the documents of unchanged messages from the current snapshot
+        MessageTextIndex textIndex = MessageTextIndex.build(messages, settings.getLanguages(), snapshot.getTextIndex());
+
+        // Ready to replace the current snapshot
+        this.snapshot = new MessageSnapshot(
+                snapshotVersion.incrementAndGet(),
+                messages,
+                new MessageGeometryIndex(geometries),
+                geometryErrors,
+                textIndex);
+
+        log.info(String.format("Updated %d messages with %d geometry errors in %d ms",
+                messages.size(), geometryErrors.size(), System.currentTimeMillis() - t0));
+    }
+
+
+    /**
+     * Converts the geometries of the message to JTS geometries.
+     * <p>
+     * The envelope of each geometry is computed up-front, since JTS caches it, and invalid polygonal
+     * geometries are repaired, since they break the spatial predicates. Errors are recorded in the result.
+     *
+     * @param message the message
+     * @return the result of the conversion
+     */
+    private GeometryConversion convertGeometries(MessageVo message) {
+        GeometryConversion conversion = new GeometryConversion(message.getId());
+        if (message.getParts() == null) {
+            return conversion;
+        }
+
+        message.getParts().stream()
+                .filter(p -> p.getGeometry() != null && p.getGeometry().getFeatures() != null)
+                .flatMap(p -> Arrays.stream(p.getGeometry().getFeatures()))
+                .filter(f -> f.getGeometry() != null)
+                .forEach(f -> {
+                    try {
+                        // Use packed coordinates, since the geometries are cached
+                        Geometry geometry = JtsConverter.toJts(f.getGeometry(), true);
+
+                        IsValidOp validOp = new IsValidOp(geometry);
+                        if (!validOp.isValid()) {
+                            conversion.errors.add("Invalid geometry: " + validOp.getValidationError());
+                            if (geometry instanceof Polygonal) {
+                                geometry = geometry.buffer(0);
+                            }
+                        }
+
+                        // Keep a reference to the originating feature
+                        geometry.setUserData(f);
+                        geometry.getEnvelopeInternal();
+                        conversion.geometries.add(geometry);
+                    } catch (Exception e) {
+                        conversion.errors.add("Error converting geometry: " + e.getMessage());
+                    }
+                });
+        return conversion;
     }
 
 
@@ -378,23 +999,7 @@ public class MessageService extends AbstractNiordService {
      * @return the area with the given ID
      */
     public AreaVo getArea(Integer areaId) {
-        return messages.stream()
-                .filter(m -> m.getAreas() != null && !m.getAreas().isEmpty())
-                .flatMap(m -> m.getAreas().stream())
-                .map(a -> {
-                    AreaVo area = a;
-                    // Check the area or any of its parent areas
-                    do {
-                        if (Objects.equals(area.getId(), areaId)) {
-                            return area;
-                        }
-                        area = area.getParent();
-                    } while (area != null);
-                    return null;
-                })
-                .filter(Objects::nonNull)
-                .findFirst()
-                .orElse(null);
+        return snapshot.getArea(areaId);
     }
 
 
@@ -425,4 +1030,15 @@ public class MessageService extends AbstractNiordService {
                 + "/rest/public/v1/area/" + WebUtils.encodeURIComponent(areaId);
     }
 
+
+    /** The result of converting the geometries of a message **/
+    private static class GeometryConversion {
+        final String messageId;
+        final List<Geometry> geometries = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+
+        GeometryConversion(String messageId) {
+            this.messageId = messageId;
+        }
+    }
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.niord.proxy.rest;
+
+import org.niord.model.geojson.FeatureCollectionVo;
+import org.niord.model.message.AreaVo;
+import org.niord.model.message.MessageVo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable snapshot of the messages fetched from the NW-NM service, along with the
+ * data computed from the messages, such as the message geometries.
+ * <p>
+ * A new snapshot is created every time the message list is updated, and replaces the
+ * previous snapshot as a whole. Data derived lazily from the snapshot is cached in the
+ * snapshot itself, and thus flushed along with it.
+ */
+@SuppressWarnings("unused")
+public class MessageSnapshot {
+
+    public static final MessageSnapshot EMPTY = new MessageSnapshot(
+            0, new ArrayList<>(), MessageGeometryIndex.EMPTY, Collections.emptyMap(), MessageTextIndex.EMPTY);
+
+    private final long version;
+    private final List<MessageVo> messages;
+    private final Map<String, MessageVo> messageLookup = new HashMap<>();
+    private final Map<Integer, AreaVo> areas = new HashMap<>();
+    private final MessageGeometryIndex geometryIndex;
+    private final Map<String, List<String>> geometryErrors;
+    private final MessageTextIndex textIndex;
+
+    // The messages in each of the pre-computed sort orders
+    private final Map<MessageSort, List<MessageVo>> ascendingOrders = new EnumMap<>(MessageSort.class);
+    private final Map<MessageSort, List<MessageVo>> descendingOrders = new EnumMap<>(MessageSort.class);
+
+    // Simplified feature collections, keyed by zoom level and language
+    private final Map<String, FeatureCollectionVo> featureCollections = new ConcurrentHashMap<>();
+
+    // Message marker clusters, keyed by zoom level and main types
+    private final Map<String, List<MessageClusterVo>> clusters = new ConcurrentHashMap<>();
+
+
+    /**
+     * Constructor
+     * @param version the version of the snapshot
+     * @param messages the messages
+     * @param geometryIndex the message geometry index
+     * @param geometryErrors the errors encountered converting message geometries, keyed by message ID
+     * @param textIndex the message text index
+     */
+    public MessageSnapshot(long version, List<MessageVo> messages, MessageGeometryIndex geometryIndex,
+                           Map<String, List<String>> geometryErrors, MessageTextIndex textIndex) {
+        this.version = version;
+        this.messages = messages;
+        this.geometryIndex = geometryIndex;
+        this.geometryErrors = geometryErrors;
+        this.textIndex = textIndex;
+
+        // Index the messages by both ID and short ID
+        messages.forEach(m -> {
+            if (m.getShortId() != null) {
+                messageLookup.put(m.getShortId(), m);
+            }
+        });
+        messages.forEach(m -> messageLookup.put(m.getId(), m));
+
+        // Index the areas, including parent areas, by ID. Since the areas are canonicalized,
+        // the parent chain of an area that has already been visited can be skipped
+        Set<AreaVo> visitedAreas = Collections.newSetFromMap(new IdentityHashMap<>());
+        messages.stream()
+                .filter(m -> m.getAreas() != null)
+                .flatMap(m -> m.getAreas().stream())
+                .forEach(area -> {
+                    for (AreaVo a = area; a != null && visitedAreas.add(a); a = a.getParent()) {
+                        areas.putIfAbsent(a.getId(), a);
+                    }
+                });
+
+        // Pre-compute the sort orders
+        for (MessageSort sort : MessageSort.values()) {
+            ascendingOrders.put(sort, sortMessages(sort, false));
+            descendingOrders.put(sort, sortMessages(sort, true));
+        }
+    }
+
+
+    /** Returns the messages sorted in the given sort order **/
+    private List<MessageVo> sortMessages(MessageSort sort, boolean descending) {
+        List<MessageVo> sorted = new ArrayList<>(messages);
+        Comparator<MessageVo> comparator = sort.comparator(descending);
+        if (comparator != null) {
+            sorted.sort(comparator);
+        } else if (descending) {
+            Collections.reverse(sorted);
+        }
+        return Collections.unmodifiableList(sorted);
+    }
+
+
+    /**
+     * Returns the messages in the given pre-computed sort order
+     * @param sort the sort order
+     * @param descending whether to return the messages in descending order
+     * @return the sorted messages
+     */
+    public List<MessageVo> getSortedMessages(MessageSort sort, boolean descending) {
+        return descending ? descendingOrders.get(sort) : ascendingOrders.get(sort);
+    }
+
+
+    /**
+     * Returns the message with the given ID or short ID, or null if not found
+     * @param messageId the message ID or short ID
+     * @return the message with the given ID or short ID
+     */
+    public MessageVo getMessage(String messageId) {
+        return messageId != null ? messageLookup.get(messageId) : null;
+    }
+
+
+    /**
+     * Returns the area with the given ID, if the area is one of the areas of the messages
+     * @param areaId the ID of the area
+     * @return the area with the given ID
+     */
+    public AreaVo getArea(Integer areaId) {
+        return areaId != null ? areas.get(areaId) : null;
+    }
+
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<MessageVo> getMessages() {
+        return messages;
+    }
+
+    public MessageGeometryIndex getGeometryIndex() {
+        return geometryIndex;
+    }
+
+    public Map<String, List<String>> getGeometryErrors() {
+        return geometryErrors;
+    }
+
+    public MessageTextIndex getTextIndex() {
+        return textIndex;
+    }
+
+    Map<String, FeatureCollectionVo> getFeatureCollections() {
+        return featureCollections;
+    }
+
+    Map<String, List<MessageClusterVo>> getClusters() {
+        return clusters;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.niord.proxy.rest;
+
+import org.niord.model.message.MessageVo;
+
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * The sort orders of messages, which are pre-computed for each message snapshot
+ */
+@SuppressWarnings("unused")
+public enum MessageSort {
+
+    /** The order of the messages fetched from the NW-NM service, which is by area **/
+    AREA(null),
+
+    /** Sort by the publish date of the messages **/
+    PUBLISH_DATE(MessageVo::getPublishDateFrom),
+
+    /** Sort by the earliest event date of the messages **/
+    EVENT_DATE(MessageSort::getEventDateFrom);
+
+    private final Function<MessageVo, Date> messageDate;
+
+    MessageSort(Function<MessageVo, Date> messageDate) {
+        this.messageDate = messageDate;
+    }
+
+
+    /**
+     * Returns a comparator for the sort order, or null for the order of the fetched messages.
+     * Messages without a date are sorted last in both ascending and descending order
+     * @param descending whether to sort in descending order
+     * @return the comparator for the sort order
+     */
+    public Comparator<MessageVo> comparator(boolean descending) {
+        if (messageDate == null) {
+            return null;
+        }
+        Comparator<Date> dateComparator = descending
+                ? Comparator.nullsLast(Comparator.<Date>reverseOrder())
+                : Comparator.nullsLast(Comparator.<Date>naturalOrder());
+        return Comparator.comparing(messageDate, dateComparator);
+    }
+
+
+    /** Returns the earliest event date of the message, or null if undefined **/
+    private static Date getEventDateFrom(MessageVo message) {
+        if (message.getParts() == null) {
+            return null;
+        }
+        return message.getParts().stream()
+                .filter(p -> p.getEventDates() != null)
+                .flatMap(p -> p.getEventDates().stream())
+                .map(di -> di.getFromDate())
+                .filter(Objects::nonNull)
+                .min(Date::compareTo)
+                .orElse(null);
+    }
+}
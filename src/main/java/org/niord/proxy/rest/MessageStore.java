@@ -0,0 +1,228 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.niord.proxy.rest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.niord.model.message.MessageVo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores messages as Smile-encoded bytes in off-heap memory.
+ * <p>
+ * The encoded messages are appended to direct byte buffer slabs, and decoded on demand by message ID.
+ * A small cache of decoded messages is kept on the heap in front of the store.
+ * <p>
+ * Removed messages leave unused space in the slabs, and the slabs are compacted once more than half
+ * of the space is unused.
+ */
+@SuppressWarnings("unused")
+public class MessageStore {
+
+    public static final int DEFAULT_SLAB_SIZE = 4 * 1024 * 1024;
+
+    private final ObjectMapper mapper = new ObjectMapper(new SmileFactory());
+    private final int slabSize;
+
+    private List<ByteBuffer> slabs = new ArrayList<>();
+    private final Map<String, Entry> entries = new HashMap<>();
+    private long usedBytes;
+    private long liveBytes;
+
+    // The most recently accessed decoded messages
+    private final Map<String, MessageVo> hotCache;
+
+
+    /**
+     * Constructor
+     * @param hotCacheSize the max number of decoded messages to keep on the heap
+     */
+    public MessageStore(int hotCacheSize) {
+        this(DEFAULT_SLAB_SIZE, hotCacheSize);
+    }
+
+
+    /**
+     * Constructor
+     * @param slabSize the size of the off-heap buffer slabs
+     * @param hotCacheSize the max number of decoded messages to keep on the heap
+     */
+    public MessageStore(int slabSize, int hotCacheSize) {
+        this.slabSize = slabSize;
+        this.hotCache = Collections.synchronizedMap(new LinkedHashMap<String, MessageVo>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MessageVo> eldest) {
+                return size() > hotCacheSize;
+            }
+        });
+    }
+
+
+    /**
+     * Adds or replaces the message in the store
+     * @param message the message to store
+     */
+    public void put(MessageVo message) throws IOException {
+        byte[] bytes = mapper.writeValueAsBytes(message);
+        synchronized (this) {
+            removeEntry(message.getId());
+            entries.put(message.getId(), append(bytes));
+            liveBytes += bytes.length;
+        }
+        hotCache.put(message.getId(), message);
+    }
+
+
+    /**
+     * Returns the message with the given ID, or null if not stored
+     * @param messageId the message ID
+     * @return the message with the given ID
+     */
+    public MessageVo get(String messageId) {
+        MessageVo message = hotCache.get(messageId);
+        if (message != null) {
+            return message;
+        }
+
+        byte[] bytes;
+        synchronized (this) {
+            Entry entry = entries.get(messageId);
+            if (entry == null) {
+                return null;
+            }
+            bytes = read(entry);
+        }
+
+        try {
+            message = mapper.readValue(bytes, MessageVo.class);
+            hotCache.put(messageId, message);
+            return message;
+        } catch (IOException e) {
+            throw new IllegalStateException("Error decoding stored message " + messageId, e);
+        }
+    }
+
+
+    /**
+     * Returns if the message with the given ID is stored
+     * @param messageId the message ID
+     * @return if the message with the given ID is stored
+     */
+    public synchronized boolean contains(String messageId) {
+        return entries.containsKey(messageId);
+    }
+
+
+    /**
+     * Removes the message with the given ID from the store
+     * @param messageId the message ID
+     */
+    public void remove(String messageId) {
+        hotCache.remove(messageId);
+        synchronized (this) {
+            removeEntry(messageId);
+            if (usedBytes > slabSize && liveBytes < usedBytes / 2) {
+                compact();
+            }
+        }
+    }
+
+
+    /** Returns the number of stored messages **/
+    public synchronized int size() {
+        return entries.size();
+    }
+
+
+    /** Returns the number of off-heap bytes allocated by the store **/
+    public synchronized long getAllocatedBytes() {
+        return slabs.stream().mapToLong(ByteBuffer::capacity).sum();
+    }
+
+
+    /** Removes the entry with the given ID. Must be called whilst synchronized **/
+    private void removeEntry(String messageId) {
+        Entry entry = entries.remove(messageId);
+        if (entry != null) {
+            liveBytes -= entry.length;
+        }
+    }
+
+
+    /** Appends the bytes to the current slab, or a new slab if full. Must be called whilst synchronized **/
+    private Entry append(byte[] bytes) {
+        ByteBuffer slab = slabs.isEmpty() ? null : slabs.get(slabs.size() - 1);
+        if (slab == null || slab.remaining() < bytes.length) {
+            slab = ByteBuffer.allocateDirect(Math.max(slabSize, bytes.length));
+            slabs.add(slab);
+        }
+        Entry entry = new Entry(slabs.size() - 1, slab.position(), bytes.length);
+        slab.put(bytes);
+        usedBytes += bytes.length;
+        return entry;
+    }
+
+
+    /** Reads the bytes of the given entry. Must be called whilst synchronized **/
+    private byte[] read(Entry entry) {
+        byte[] bytes = new byte[entry.length];
+        ByteBuffer slab = slabs.get(entry.slab).duplicate();
+        slab.position(entry.offset);
+        slab.get(bytes);
+        return bytes;
+    }
+
+
+    /** Copies all live entries to new slabs, releasing the old slabs. Must be called whilst synchronized **/
+    private void compact() {
+        List<ByteBuffer> oldSlabs = slabs;
+        Map<String, Entry> oldEntries = new HashMap<>(entries);
+        List<String> ids = new ArrayList<>(oldEntries.keySet());
+
+        slabs = new ArrayList<>();
+        usedBytes = 0;
+        for (String id : ids) {
+            Entry oldEntry = oldEntries.get(id);
+            byte[] bytes = new byte[oldEntry.length];
+            ByteBuffer slab = oldSlabs.get(oldEntry.slab).duplicate();
+            slab.position(oldEntry.offset);
+            slab.get(bytes);
+            entries.put(id, append(bytes));
+        }
+    }
+
+
+    /** The location of an encoded message **/
+    private static class Entry {
+        final int slab;
+        final int offset;
+        final int length;
+
+        Entry(int slab, int offset, int length) {
+            this.slab = slab;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
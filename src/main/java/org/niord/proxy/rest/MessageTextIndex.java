@@ -0,0 +1,258 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.niord.proxy.rest;
+
+import org.apache.commons.lang.StringUtils;
+import org.jsoup.parser.Parser;
+import org.niord.model.ILocalizable;
+import org.niord.model.ILocalizedDesc;
+import org.niord.model.message.AreaDescVo;
+import org.niord.model.message.AreaVo;
+import org.niord.model.message.MessageDescVo;
+import org.niord.model.message.MessagePartDescVo;
+import org.niord.model.message.MessageVo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable per-language inverted index of the message titles, descriptions and area names.
+ * <p>
+ * Each language has a posting list per token, holding the weighted score of each message containing the
+ * token, along with a sorted array of all tokens used for prefix matching.
+ * <p>
+ * The index is rebuilt every time the message list is updated, but the tokenized message documents of
+ * unchanged messages, as determined by the message "updated" timestamp, are reused from the previous index.
+ */
+@SuppressWarnings("unused")
+public class MessageTextIndex {
+
+    public static final MessageTextIndex EMPTY = new MessageTextIndex(new String[0], Collections.emptyMap());
+
+    /** Field weights used for ranking **/
+    static final float TITLE_WEIGHT         = 4.0f;
+    static final float AREA_WEIGHT          = 2.0f;
+    static final float DESCRIPTION_WEIGHT   = 1.0f;
+
+    /** Prefix matches are ranked lower than exact token matches **/
+    static final float PREFIX_MATCH_FACTOR  = 0.5f;
+
+    private static final Pattern HTML_TAGS = Pattern.compile("<[^>]*>");
+    private static final Pattern TOKEN_SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private final String[] languages;
+    private final Map<String, IndexedMessage> documents;
+    private final Map<String, Map<String, Map<String, Float>>> postings = new HashMap<>();
+    private final Map<String, String[]> sortedTokens = new HashMap<>();
+
+
+    /**
+     * Constructor
+     * @param languages the indexed languages
+     * @param documents the tokenized message documents, keyed by message ID
+     */
+    private MessageTextIndex(String[] languages, Map<String, IndexedMessage> documents) {
+        this.languages = languages;
+        this.documents = documents;
+
+        // Build the posting lists of each language
+        documents.forEach((messageId, document) ->
+            document.tokens.forEach((lang, tokens) -> {
+                Map<String, Map<String, Float>> langPostings = postings.computeIfAbsent(lang, l -> new HashMap<>());
+                tokens.forEach((token, weight) ->
+                        langPostings.computeIfAbsent(token, t -> new HashMap<>()).put(messageId, weight));
+            }));
+
+        postings.forEach((lang, langPostings) -> {
+            String[] tokens = langPostings.keySet().toArray(new String[langPostings.size()]);
+            Arrays.sort(tokens);
+            sortedTokens.put(lang, tokens);
+        });
+    }
+
+
+    /**
+     * Builds a text index for the given messages.
+     * The tokenized documents of messages that are unchanged since the previous index are reused.
+     *
+     * @param messages the messages to index
+     * @param languages the languages to index
+     * @param previous the previous index
+     * @return the new text index
+     */
+    public static MessageTextIndex build(List<MessageVo> messages, String[] languages, MessageTextIndex previous) {
+        boolean sameLanguages = previous != null && Arrays.equals(previous.languages, languages);
+        Map<String, IndexedMessage> documents = new HashMap<>();
+        for (MessageVo message : messages) {
+            IndexedMessage document = sameLanguages ? previous.documents.get(message.getId()) : null;
+            if (document == null || document.updated == null || !document.updated.equals(message.getUpdated())) {
+                document = indexMessage(message, languages);
+            }
+            documents.put(message.getId(), document);
+        }
+        return new MessageTextIndex(languages, documents);
+    }
+
+
+    /**
+     * Returns the IDs of the messages matching all terms of the query in the given language,
+     * along with the relevance score of each message.
+     * <p>
+     * Each query term matches both tokens equal to the term, and tokens that start with the term.
+     *
+     * @param language the language
+     * @param query the query
+     * @return the relevance score of the matching messages, keyed by message ID
+     */
+    public Map<String, Float> search(String language, String query) {
+        Map<String, Map<String, Float>> langPostings = postings.get(language);
+        List<String> terms = tokenize(query);
+        if (langPostings == null || terms.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        String[] tokens = sortedTokens.get(language);
+        Map<String, Float> result = null;
+        for (String term : terms) {
+            // Find the range of tokens starting with the term
+            Map<String, Float> termScores = new HashMap<>();
+            int index = Arrays.binarySearch(tokens, term);
+            for (int i = index < 0 ? -index - 1 : index; i < tokens.length && tokens[i].startsWith(term); i++) {
+                float factor = tokens[i].length() == term.length() ? 1.0f : PREFIX_MATCH_FACTOR;
+                langPostings.get(tokens[i]).forEach((messageId, weight) ->
+                        termScores.merge(messageId, weight * factor, Math::max));
+            }
+
+            // All terms must match
+            if (result == null) {
+                result = termScores;
+            } else {
+                Map<String, Float> scores = termScores;
+                result.keySet().retainAll(scores.keySet());
+                result.replaceAll((messageId, score) -> score + scores.get(messageId));
+            }
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Tokenizes the message in all languages
+     * @param message the message
+     * @param languages the languages
+     * @return the tokenized message
+     */
+    private static IndexedMessage indexMessage(MessageVo message, String[] languages) {
+        IndexedMessage document = new IndexedMessage(message.getUpdated());
+        for (String lang : languages) {
+            Map<String, Float> tokens = new HashMap<>();
+
+            MessageDescVo desc = getDesc(message, lang);
+            if (desc != null) {
+                addTokens(tokens, desc.getTitle(), TITLE_WEIGHT);
+                addTokens(tokens, desc.getVicinity(), DESCRIPTION_WEIGHT);
+            }
+
+            if (message.getAreas() != null) {
+                for (AreaVo area : message.getAreas()) {
+                    for (AreaVo a = area; a != null; a = a.getParent()) {
+                        AreaDescVo areaDesc = getDesc(a, lang);
+                        if (areaDesc != null) {
+                            addTokens(tokens, areaDesc.getName(), AREA_WEIGHT);
+                        }
+                    }
+                }
+            }
+
+            if (message.getParts() != null) {
+                message.getParts().stream()
+                        .map(p -> getDesc(p, lang))
+                        .filter(Objects::nonNull)
+                        .forEach(partDesc -> {
+                            addTokens(tokens, partDesc.getSubject(), DESCRIPTION_WEIGHT);
+                            addTokens(tokens, partDesc.getDetails(), DESCRIPTION_WEIGHT);
+                        });
+            }
+
+            document.tokens.put(lang, tokens);
+        }
+        return document;
+    }
+
+
+    /**
+     * Returns the description in the given language, or falls back to the first description
+     * @param entity the localizable entity
+     * @param lang the language
+     * @return the description in the given language
+     */
+    private static <D extends ILocalizedDesc> D getDesc(ILocalizable<D> entity, String lang) {
+        if (entity.getDescs() == null || entity.getDescs().isEmpty()) {
+            return null;
+        }
+        D desc = entity.getDesc(lang);
+        return desc != null ? desc : entity.getDescs().get(0);
+    }
+
+
+    /** Adds the tokens of the text with the given weight, keeping the max weight of each token **/
+    private static void addTokens(Map<String, Float> tokens, String text, float weight) {
+        tokenize(text).forEach(token -> tokens.merge(token, weight, Math::max));
+    }
+
+
+    /**
+     * Splits the text, which may contain HTML mark-up, into lower-case tokens
+     * @param text the text to tokenize
+     * @return the tokens
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (StringUtils.isNotBlank(text)) {
+            // Strip the mark-up and decode the HTML entities, e.g. "K&oslash;benhavn" -> "København"
+            text = HTML_TAGS.matcher(text).replaceAll(" ");
+            text = Parser.unescapeEntities(text, false);
+            for (String token : TOKEN_SEPARATORS.split(text.toLowerCase(Locale.ROOT))) {
+                if (!token.isEmpty()) {
+                    tokens.add(token);
+                }
+            }
+        }
+        return tokens;
+    }
+
+
+    /** The tokenized document of a message **/
+    private static class IndexedMessage {
+        final Date updated;
+        final Map<String, Map<String, Float>> tokens = new HashMap<>();
+
+        IndexedMessage(Date updated) {
+            this.updated = updated;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.niord.proxy.rest;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.CoordinateSequenceFilter;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
+import org.niord.model.message.MessageVo;
+import org.niord.proxy.util.GeoUtils;
+import org.niord.proxy.util.JtsConverter;
+import org.niord.proxy.util.VectorTileEncoder;
+
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Singleton;
+import javax.inject.Inject;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Renders the geometries of the cached messages as Mapbox Vector Tiles.
+ * <p>
+ * The geometries are clipped to each tile, with a small buffer, and simplified to the
+ * tile resolution. Rendered tiles are cached until the message list is updated.
+ */
+@Singleton
+@Lock(LockType.READ)
+@SuppressWarnings("unused")
+public class MessageTileService {
+
+    public static final String LAYER_NAME   = "messages";
+    public static final int MAX_ZOOM        = 22;
+
+    /** The max number of rendered tiles to cache **/
+    static final int MAX_CACHED_TILES       = 5000;
+
+    /** The buffer around each tile, as a fraction of the tile size **/
+    static final double TILE_BUFFER         = 64.0 / VectorTileEncoder.DEFAULT_EXTENT;
+
+    @Inject
+    MessageService messageService;
+
+    @Inject
+    Logger log;
+
+    // The version of the message snapshot that the cached tiles were rendered from
+    private long tileSnapshotVersion = -1;
+
+    private final Map<String, byte[]> tiles = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+            return size() > MAX_CACHED_TILES;
+        }
+    };
+
+
+    /**
+     * Returns the vector tile with the given tile coordinates
+     * @param z the zoom level
+     * @param x the x tile coordinate
+     * @param y the y tile coordinate
+     * @return the encoded vector tile
+     */
+    public byte[] getTile(int z, int x, int y) {
+
+        // Flush the cache whenever the message list has been updated
+        MessageSnapshot snapshot = messageService.getSnapshot();
+        String key = z + "/" + x + "/" + y;
+        synchronized (tiles) {
+            if (tileSnapshotVersion != snapshot.getVersion()) {
+                tiles.clear();
+                tileSnapshotVersion = snapshot.getVersion();
+            }
+            byte[] tile = tiles.get(key);
+            if (tile != null) {
+                return tile;
+            }
+        }
+
+        byte[] tile = renderTile(snapshot, z, x, y);
+
+        synchronized (tiles) {
+            if (tileSnapshotVersion == snapshot.getVersion()) {
+                tiles.put(key, tile);
+            }
+        }
+        return tile;
+    }
+
+
+    /**
+     * Renders the vector tile with the given tile coordinates
+     * @param snapshot the message snapshot
+     * @param z the zoom level
+     * @param x the x tile coordinate
+     * @param y the y tile coordinate
+     * @return the encoded vector tile
+     */
+    private byte[] renderTile(MessageSnapshot snapshot, int z, int x, int y) {
+        long t0 = System.currentTimeMillis();
+
+        VectorTileEncoder encoder = new VectorTileEncoder();
+        int extent = encoder.getExtent();
+
+        // Compute the buffered tile bounds in lat-lon
+        int n = 1 << z;
+        Envelope tileEnvelope = new Envelope(
+                GeoUtils.mercatorLon((x - TILE_BUFFER) / n),
+                GeoUtils.mercatorLon((x + 1 + TILE_BUFFER) / n),
+                GeoUtils.mercatorLat((y + 1 + TILE_BUFFER) / n),
+                GeoUtils.mercatorLat((y - TILE_BUFFER) / n));
+        Geometry clip = JtsConverter.toJtsExtent(
+                tileEnvelope.getMinY(), tileEnvelope.getMinX(), tileEnvelope.getMaxY(), tileEnvelope.getMaxX());
+
+        // Simplify to roughly a screen pixel in tile coordinates
+        double tolerance = extent / 256.0;
+
+        snapshot.getGeometryIndex().forEachGeometry(tileEnvelope, (messageId, geometry) -> {
+            MessageVo message = snapshot.getMessage(messageId);
+            if (message == null) {
+                return;
+            }
+            try {
+                Geometry clipped = tileEnvelope.contains(geometry.getEnvelopeInternal())
+                        ? geometry
+                        : clip.intersection(geometry);
+                if (clipped.isEmpty()) {
+                    return;
+                }
+
+                Geometry tileGeometry = (Geometry) clipped.clone();
+                tileGeometry.apply(new TileTransformation(z, x, y, extent));
+                tileGeometry.geometryChanged();
+                tileGeometry = TopologyPreservingSimplifier.simplify(tileGeometry, tolerance);
+
+                Map<String, Object> attributes = new LinkedHashMap<>();
+                attributes.put("messageId", message.getId());
+                attributes.put("shortId", message.getShortId());
+                attributes.put("mainType", message.getMainType());
+                encoder.addFeature(LAYER_NAME, attributes, tileGeometry);
+
+            } catch (Exception e) {
+                log.log(Level.FINE, "Failed rendering geometry of message " + messageId + " in tile: " + e);
+            }
+        });
+
+        byte[] tile = encoder.encode();
+        log.log(Level.FINE, String.format("Rendered tile %d/%d/%d with %d bytes in %d ms",
+                z, x, y, tile.length, System.currentTimeMillis() - t0));
+        return tile;
+    }
+
+
+    /**
+     * Transforms lat-lon coordinates into the coordinate space of a tile
+     */
+    private static class TileTransformation implements CoordinateSequenceFilter {
+
+        final int n, x, y, extent;
+
+        TileTransformation(int z, int x, int y, int extent) {
+            this.n = 1 << z;
+            this.x = x;
+            this.y = y;
+            this.extent = extent;
+        }
+
+        @Override
+        public void filter(CoordinateSequence seq, int i) {
+            double lon = seq.getX(i);
+            double lat = seq.getY(i);
+            seq.setOrdinate(i, CoordinateSequence.X, (GeoUtils.mercatorX(lon) * n - x) * extent);
+            seq.setOrdinate(i, CoordinateSequence.Y, (GeoUtils.mercatorY(lat) * n - y) * extent);
+        }
+
+        @Override
+        public boolean isDone() {
+            return false;
+        }
+
+        @Override
+        public boolean isGeometryChanged() {
+            return true;
+        }
+    }
+}
@@ -15,12 +15,17 @@
  */
 package org.niord.proxy.rest;
 
+import com.vividsolutions.jts.io.ParseException;
+import org.niord.model.geojson.FeatureCollectionVo;
 import org.niord.model.message.MainType;
 import org.niord.model.message.MessageVo;
 
 import javax.inject.Inject;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.Consumes;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
@@ -28,9 +33,15 @@ import javax.ws.rs.QueryParam;
 import java.util.List;
 import java.util.Set;
 
+import static org.niord.proxy.rest.BinaryMessageBodyWriter.APPLICATION_CBOR;
+import static org.niord.proxy.rest.BinaryMessageBodyWriter.APPLICATION_SMILE;
+
 
 /**
- * Main REST endpoint for fetching messages from the NW-NM backend
+ * Main REST endpoint for fetching messages from the NW-NM backend.
+ * <p>
+ * Besides JSON, all endpoints can return the compact binary CBOR and Smile encodings
+ * of the same data, selected by the "Accept" header of the request.
  */
 @Path("/messages")
 public class MessagesRestService {
@@ -43,24 +54,210 @@ public class MessagesRestService {
      * Returns a filtered set of messages
      *
      * @param language the language of the descriptive fields to include
+     * @param query the optional text query
      * @param mainTypes the main types to include
      * @param areaIds the area IDs of the messages to include
      * @param wkt the geometric boundary of the messages to include
+     * @param minLat the minimum latitude of the rectangular extent of the messages to include
+     * @param minLon the minimum longitude of the rectangular extent of the messages to include
+     * @param maxLat the maximum latitude of the rectangular extent of the messages to include
+     * @param maxLon the maximum longitude of the rectangular extent of the messages to include
      * @param active whether or not to only show messages that are currently active
+     * @param sort the optional sort order. By default, messages are ordered by area, or by relevance for text queries
+     * @param sortOrder the sort direction, either "ASC" or "DESC"
+     * @param limit the optional max number of messages to return
      * @return the filtered set of messages
      */
 	@GET
     @Path("/search")
-	@Produces("application/json;charset=UTF-8")
+	@Produces({ "application/json;charset=UTF-8", APPLICATION_CBOR, APPLICATION_SMILE })
 	public List<MessageVo> search(
 	        @QueryParam("language") @DefaultValue("en") String language,
+            @QueryParam("q") String query,
             @QueryParam("mainType") Set<MainType> mainTypes,
             @QueryParam("areaId") Set<Integer> areaIds,
             @QueryParam("wkt") String wkt,
-            @QueryParam("active") boolean active
+            @QueryParam("minLat") Double minLat,
+            @QueryParam("minLon") Double minLon,
+            @QueryParam("maxLat") Double maxLat,
+            @QueryParam("maxLon") Double maxLon,
+            @QueryParam("active") boolean active,
+            @QueryParam("sort") MessageSort sort,
+            @QueryParam("sortOrder") @DefaultValue("ASC") String sortOrder,
+            @QueryParam("limit") Integer limit
             ) throws Exception {
 
-        return messageService.getMessages(language, mainTypes, areaIds, wkt, active);
+        MessageSearchParams params = new MessageSearchParams()
+                .language(language)
+                .query(query)
+                .mainTypes(mainTypes)
+                .areaIds(areaIds)
+                .wkt(wkt)
+                .extent(minLat, minLon, maxLat, maxLon)
+                .active(active)
+                .sort(sort, "DESC".equalsIgnoreCase(sortOrder))
+                .limit(limit);
+
+        return messageService.getMessages(params);
+    }
+
+
+    /**
+     * Returns the number of messages matching the filter per main type, per area and per
+     * active status. The filter parameters are the same as for the "search" endpoint.
+     * <p>
+     * Each count is computed with all filters applied, except the filter of the count itself.
+     *
+     * @param language the language used for the text query
+     * @param query the optional text query
+     * @param mainTypes the main types to include
+     * @param areaIds the area IDs of the messages to include
+     * @param wkt the geometric boundary of the messages to include
+     * @param minLat the minimum latitude of the rectangular extent of the messages to include
+     * @param minLon the minimum longitude of the rectangular extent of the messages to include
+     * @param maxLat the maximum latitude of the rectangular extent of the messages to include
+     * @param maxLon the maximum longitude of the rectangular extent of the messages to include
+     * @param active whether or not to only count messages that are currently active
+     * @return the message facets
+     */
+    @GET
+    @Path("/facets")
+    @Produces({ "application/json;charset=UTF-8", APPLICATION_CBOR, APPLICATION_SMILE })
+    public MessageFacetsVo facets(
+            @QueryParam("language") @DefaultValue("en") String language,
+            @QueryParam("q") String query,
+            @QueryParam("mainType") Set<MainType> mainTypes,
+            @QueryParam("areaId") Set<Integer> areaIds,
+            @QueryParam("wkt") String wkt,
+            @QueryParam("minLat") Double minLat,
+            @QueryParam("minLon") Double minLon,
+            @QueryParam("maxLat") Double maxLat,
+            @QueryParam("maxLon") Double maxLon,
+            @QueryParam("active") boolean active
+    ) throws Exception {
+
+        MessageSearchParams params = new MessageSearchParams()
+                .language(language)
+                .query(query)
+                .mainTypes(mainTypes)
+                .areaIds(areaIds)
+                .wkt(wkt)
+                .extent(minLat, minLon, maxLat, maxLon)
+                .active(active);
+
+        return messageService.getFacets(params);
+    }
+
+
+    /**
+     * Returns the messages nearest to the given position, ordered by distance.
+     * <p>
+     * If a max distance is specified, all messages within this distance are returned, up to the limit.
+     *
+     * @param language the language of the descriptive fields to include
+     * @param lat the latitude of the position
+     * @param lon the longitude of the position
+     * @param maxDistance the optional max distance in nautical miles
+     * @param limit the max number of messages to return
+     * @param active whether or not to only include messages that are currently active
+     * @return the messages nearest to the given position
+     */
+    @GET
+    @Path("/nearest")
+    @Produces({ "application/json;charset=UTF-8", APPLICATION_CBOR, APPLICATION_SMILE })
+    public List<MessageVo> nearest(
+            @QueryParam("language") @DefaultValue("en") String language,
+            @QueryParam("lat") Double lat,
+            @QueryParam("lon") Double lon,
+            @QueryParam("maxDistance") Double maxDistance,
+            @QueryParam("limit") @DefaultValue("10") int limit,
+            @QueryParam("active") boolean active
+    ) throws Exception {
+
+        if (lat == null || lon == null) {
+            throw new BadRequestException("The lat and lon parameters must be specified");
+        }
+        if (limit <= 0) {
+            throw new BadRequestException("The limit parameter must be positive");
+        }
+
+        return messageService.getNearestMessages(language, lat, lon, maxDistance, limit, active);
+    }
+
+
+    /**
+     * Returns the messages with geometries intersecting the corridor along the given route,
+     * ordered by the distance along the route.
+     *
+     * @param language the language of the descriptive fields to include
+     * @param wkt the route as a WKT line string
+     * @param width the width of the corridor in nautical miles
+     * @param active whether or not to only include messages that are currently active
+     * @return the messages along the route
+     */
+    @GET
+    @Path("/route")
+    @Produces({ "application/json;charset=UTF-8", APPLICATION_CBOR, APPLICATION_SMILE })
+    public List<MessageVo> route(
+            @QueryParam("language") @DefaultValue("en") String language,
+            @QueryParam("wkt") String wkt,
+            @QueryParam("width") @DefaultValue("1") double width,
+            @QueryParam("active") boolean active
+    ) throws Exception {
+
+        try {
+            return messageService.getMessagesAlongRoute(language, wkt, width, active);
+        } catch (IllegalArgumentException | ParseException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+    }
+
+
+    /**
+     * Returns the features of all messages as a GeoJSON feature collection,
+     * simplified to the resolution of the given zoom level.
+     *
+     * @param language the language of the descriptive feature properties
+     * @param zoom the zoom level
+     * @return the features of all messages
+     */
+    @GET
+    @Path("/features")
+    @Produces({ "application/json;charset=UTF-8", APPLICATION_CBOR, APPLICATION_SMILE })
+    public FeatureCollectionVo features(
+            @QueryParam("language") @DefaultValue("en") String language,
+            @QueryParam("zoom") @DefaultValue("20") int zoom
+    ) throws Exception {
+
+        return messageService.getFeatureCollection(language, zoom);
+    }
+
+
+    /**
+     * Returns the message marker clusters for the given zoom level and extent.
+     * Each cluster contains the number of messages and their IDs.
+     *
+     * @param zoom the zoom level
+     * @param mainTypes the main types to include
+     * @param minLat the minimum latitude of the extent
+     * @param minLon the minimum longitude of the extent
+     * @param maxLat the maximum latitude of the extent
+     * @param maxLon the maximum longitude of the extent
+     * @return the message marker clusters
+     */
+    @GET
+    @Path("/clusters")
+    @Produces({ "application/json;charset=UTF-8", APPLICATION_CBOR, APPLICATION_SMILE })
+    public List<MessageClusterVo> clusters(
+            @QueryParam("zoom") @DefaultValue("6") int zoom,
+            @QueryParam("mainType") Set<MainType> mainTypes,
+            @QueryParam("minLat") Double minLat,
+            @QueryParam("minLon") Double minLon,
+            @QueryParam("maxLat") Double maxLat,
+            @QueryParam("maxLon") Double maxLon
+    ) throws Exception {
+
+        return messageService.getClusters(zoom, mainTypes, minLat, minLon, maxLat, maxLon);
     }
 
 
@@ -73,7 +270,7 @@ public class MessagesRestService {
      */
     @GET
     @Path("/message/{messageId}")
-    @Produces("application/json;charset=UTF-8")
+    @Produces({ "application/json;charset=UTF-8", APPLICATION_CBOR, APPLICATION_SMILE })
     public MessageVo details(
             @QueryParam("language") @DefaultValue("en") String language,
             @PathParam("messageId") String messageId
@@ -83,6 +280,32 @@ public class MessagesRestService {
     }
 
 
+    /**
+     * Returns the messages with the given IDs in a single request.
+     * <p>
+     * Unknown message IDs are skipped, so the result may contain fewer messages than requested.
+     * Requests with more than {@link MessageService#MAX_BATCH_SIZE} message IDs are rejected with a 400 status.
+     *
+     * @param language the language of the descriptive fields to include
+     * @param messageIds the message IDs
+     * @return the messages with the given IDs
+     */
+    @POST
+    @Path("/messages")
+    @Consumes("application/json;charset=UTF-8")
+    @Produces({ "application/json;charset=UTF-8", APPLICATION_CBOR, APPLICATION_SMILE })
+    public List<MessageVo> detailsBatch(
+            @QueryParam("language") @DefaultValue("en") String language,
+            List<String> messageIds
+    ) throws Exception {
+
+        if (messageIds != null && messageIds.size() > MessageService.MAX_BATCH_SIZE) {
+            throw new BadRequestException("At most " + MessageService.MAX_BATCH_SIZE + " message IDs may be specified");
+        }
+        return messageService.getMessageDetails(language, messageIds);
+    }
+
+
     /**
      * Fetches the area roots - which may be used for message filtering
      *
@@ -90,7 +313,7 @@ public class MessagesRestService {
      */
     @GET
     @Path("/area-roots")
-    @Produces("application/json;charset=UTF-8")
+    @Produces({ "application/json;charset=UTF-8", APPLICATION_CBOR, APPLICATION_SMILE })
     public List<RootArea>  areaRoots() {
 
         return messageService.getAreaRoots();
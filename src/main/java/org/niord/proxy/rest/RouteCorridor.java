@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.niord.proxy.rest;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.util.AffineTransformation;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.linearref.LinearLocation;
+import com.vividsolutions.jts.linearref.LocationIndexedLine;
+import com.vividsolutions.jts.operation.distance.DistanceOp;
+import org.niord.proxy.util.GeoUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A corridor along a planned route, i.e. the route buffered by half the corridor width on each side.
+ * <p>
+ * The buffered geometry is prepared, so that repeated intersection tests against the corridor
+ * are cheap, and the corridor instances are cached by the MessageService for repeated queries
+ * of the same route.
+ * <p>
+ * The buffer is computed in a local equirectangular projection, where the longitudes are scaled by
+ * the cosine of the mid-latitude of the route, so that the corridor has the same width in all directions.
+ * For routes spanning a large latitude range, the width is only exact at the mid-latitude.
+ */
+@SuppressWarnings("unused")
+public class RouteCorridor {
+
+    private final LineString route;
+    private final double bufferDegrees;
+    private final double lonScale;
+    private final PreparedGeometry corridor;
+    private final LocationIndexedLine routeLocations;
+    private final double[] distanceToVertex;
+    private final List<Envelope> segmentEnvelopes = new ArrayList<>();
+
+
+    /**
+     * Constructor
+     * @param route the route
+     * @param width the width of the corridor in nautical miles
+     * @throws IllegalArgumentException if the route is empty
+     */
+    public RouteCorridor(LineString route, double width) {
+        if (route.isEmpty()) {
+            throw new IllegalArgumentException("The route must not be empty");
+        }
+        this.route = route;
+        this.bufferDegrees = GeoUtils.nmToDegrees(width / 2.0);
+
+        // Buffer the route in a local equirectangular projection, and transform the corridor back to lat-lon
+        double midLat = route.getEnvelopeInternal().centre().y;
+        this.lonScale = Math.cos(Math.toRadians(Math.min(Math.abs(midLat), GeoUtils.MAX_MERCATOR_LAT)));
+        Geometry projectedRoute = AffineTransformation.scaleInstance(lonScale, 1.0).transform(route);
+        Geometry projectedCorridor = projectedRoute.buffer(bufferDegrees);
+        this.corridor = PreparedGeometryFactory.prepare(
+                AffineTransformation.scaleInstance(1.0 / lonScale, 1.0).transform(projectedCorridor));
+        this.routeLocations = new LocationIndexedLine(route);
+
+        // Compute the distance along the route to each vertex, along with the
+        // envelope of each buffered route segment used for spatial index lookups
+        Coordinate[] coords = route.getCoordinates();
+        distanceToVertex = new double[coords.length];
+        for (int i = 1; i < coords.length; i++) {
+            distanceToVertex[i] = distanceToVertex[i - 1]
+                    + GeoUtils.distanceNm(coords[i - 1].y, coords[i - 1].x, coords[i].y, coords[i].x);
+            Envelope segmentEnvelope = new Envelope(coords[i - 1], coords[i]);
+            segmentEnvelope.expandBy(bufferDegrees / lonScale, bufferDegrees);
+            segmentEnvelopes.add(segmentEnvelope);
+        }
+    }
+
+
+    /**
+     * Returns if the geometry intersects the corridor
+     * @param geometry the geometry to test
+     * @return if the geometry intersects the corridor
+     */
+    public boolean intersects(Geometry geometry) {
+        return corridor.intersects(geometry);
+    }
+
+
+    /**
+     * Returns the distance along the route, in nautical miles, to the point of the
+     * route nearest to the given geometry
+     * @param geometry the geometry
+     * @return the distance along the route to the point of the route nearest to the given geometry
+     */
+    public double distanceAlongRoute(Geometry geometry) {
+        Coordinate nearest = DistanceOp.nearestPoints(route, geometry)[0];
+        LinearLocation location = routeLocations.project(nearest);
+        int index = location.getSegmentIndex();
+        if (index >= distanceToVertex.length - 1) {
+            return distanceToVertex[distanceToVertex.length - 1];
+        }
+        return distanceToVertex[index]
+                + location.getSegmentFraction() * (distanceToVertex[index + 1] - distanceToVertex[index]);
+    }
+
+
+    /**
+     * Returns the envelopes of the buffered route segments.
+     * For long routes, these are much tighter than the envelope of the entire corridor
+     * @return the envelopes of the buffered route segments
+     */
+    public List<Envelope> getSegmentEnvelopes() {
+        return segmentEnvelopes;
+    }
+
+
+    public LineString getRoute() {
+        return route;
+    }
+}
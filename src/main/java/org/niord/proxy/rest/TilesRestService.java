@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.niord.proxy.rest;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+
+
+/**
+ * REST endpoint for fetching the message geometries as Mapbox Vector Tiles.
+ * <p>
+ * The tiles use the standard XYZ tiling scheme and contain a single "messages" layer,
+ * with the message ID, short ID and main type as feature attributes.
+ */
+@Path("/tiles")
+public class TilesRestService {
+
+    @Inject
+    MessageTileService messageTileService;
+
+
+    /**
+     * Returns the vector tile with the given tile coordinates
+     *
+     * @param z the zoom level
+     * @param x the x tile coordinate
+     * @param y the y tile coordinate
+     * @return the encoded vector tile
+     */
+    @GET
+    @Path("/{z}/{x}/{y}.mvt")
+    @Produces("application/vnd.mapbox-vector-tile")
+    public byte[] tile(
+            @PathParam("z") int z,
+            @PathParam("x") int x,
+            @PathParam("y") int y
+    ) {
+
+        if (z < 0 || z > MessageTileService.MAX_ZOOM || x < 0 || y < 0 || x >= (1 << z) || y >= (1 << z)) {
+            throw new NotFoundException("Invalid tile " + z + "/" + x + "/" + y);
+        }
+
+        return messageTileService.getTile(z, x, y);
+    }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.niord.proxy.util;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.operation.distance.DistanceOp;
+
+/**
+ * Geographical utility functions.
+ * <p>
+ * All positions are in WGS84 degrees and all distances are in nautical miles.
+ */
+@SuppressWarnings("unused")
+public class GeoUtils {
+
+    /** The mean radius of the Earth in nautical miles **/
+    public static final double EARTH_RADIUS_NM = 3440.065;
+
+    /** Half the circumference of the Earth in nautical miles, i.e. the max distance between two positions **/
+    public static final double MAX_DISTANCE_NM = Math.PI * EARTH_RADIUS_NM;
+
+    /** The max latitude covered by the Web Mercator projection **/
+    public static final double MAX_MERCATOR_LAT = 85.0511287798;
+
+    private GeoUtils() {
+    }
+
+
+    /**
+     * Returns the great circle distance between two positions
+     * @param lat1 the latitude of the first position
+     * @param lon1 the longitude of the first position
+     * @param lat2 the latitude of the second position
+     * @param lon2 the longitude of the second position
+     * @return the great circle distance between two positions in nautical miles
+     */
+    public static double distanceNm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_NM * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+
+    /**
+     * Returns the distance from a point to the nearest point of the geometry.
+     * <p>
+     * The nearest point is found in the planar lat-lon space, whereas the distance to it
+     * is computed as a great circle distance. This is a close approximation for the
+     * distances relevant for navigational warnings.
+     *
+     * @param point the point
+     * @param geometry the geometry
+     * @return the distance from a point to the nearest point of the geometry in nautical miles
+     */
+    public static double distanceNm(Point point, Geometry geometry) {
+        if (geometry.getDimension() == 2 && contains(geometry, point)) {
+            return 0.0;
+        }
+        Coordinate nearest = DistanceOp.nearestPoints(geometry, point)[0];
+        return distanceNm(point.getY(), point.getX(), nearest.y, nearest.x);
+    }
+
+
+    /** Returns if the geometry contains the point. Heterogeneous geometry collections are tested per element **/
+    private static boolean contains(Geometry geometry, Point point) {
+        if (geometry.getClass() == GeometryCollection.class) {
+            for (int x = 0; x < geometry.getNumGeometries(); x++) {
+                Geometry element = geometry.getGeometryN(x);
+                if (element.getDimension() == 2 && contains(element, point)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return geometry.contains(point);
+    }
+
+
+    /**
+     * Returns an envelope that contains all positions within the given distance of a position.
+     * The envelope is clamped to the valid lat-lon range.
+     *
+     * @param lat the latitude of the position
+     * @param lon the longitude of the position
+     * @param distanceNm the distance in nautical miles
+     * @return an envelope that contains all positions within the given distance of a position
+     */
+    public static Envelope envelopeNm(double lat, double lon, double distanceNm) {
+        double dLat = nmToDegrees(distanceNm);
+        double minLat = Math.max(-90.0, lat - dLat);
+        double maxLat = Math.min(90.0, lat + dLat);
+
+        // The longitudinal extent grows towards the poles
+        double maxAbsLat = Math.max(Math.abs(minLat), Math.abs(maxLat));
+        double cos = Math.cos(Math.toRadians(maxAbsLat));
+        double dLon = cos > 0.0 ? dLat / cos : 360.0;
+        if (dLon >= 180.0 || maxAbsLat >= 90.0) {
+            return new Envelope(-180.0, 180.0, minLat, maxLat);
+        }
+        return new Envelope(Math.max(-180.0, lon - dLon), Math.min(180.0, lon + dLon), minLat, maxLat);
+    }
+
+
+    /**
+     * Converts a distance in nautical miles to the corresponding number of degrees along a meridian
+     * @param distanceNm the distance in nautical miles
+     * @return the corresponding number of degrees along a meridian
+     */
+    public static double nmToDegrees(double distanceNm) {
+        return Math.toDegrees(distanceNm / EARTH_RADIUS_NM);
+    }
+
+
+    /**
+     * Returns the approximate number of longitude degrees covered by a single pixel of a
+     * 256 x 256 pixel map tile at the given zoom level
+     * @param zoom the zoom level
+     * @return the number of longitude degrees covered by a single pixel
+     */
+    public static double degreesPerPixel(int zoom) {
+        return 360.0 / (256.0 * Math.pow(2, zoom));
+    }
+
+
+    /**
+     * Returns the normalized Web Mercator x coordinate, in the range [0, 1], of the given longitude
+     * @param lon the longitude
+     * @return the normalized Web Mercator x coordinate
+     */
+    public static double mercatorX(double lon) {
+        return (lon + 180.0) / 360.0;
+    }
+
+
+    /**
+     * Returns the normalized Web Mercator y coordinate, in the range [0, 1] with y pointing south,
+     * of the given latitude. The latitude is clamped to the valid Web Mercator range
+     * @param lat the latitude
+     * @return the normalized Web Mercator y coordinate
+     */
+    public static double mercatorY(double lat) {
+        double latRad = Math.toRadians(Math.max(-MAX_MERCATOR_LAT, Math.min(MAX_MERCATOR_LAT, lat)));
+        return (1.0 - Math.log(Math.tan(latRad) + 1.0 / Math.cos(latRad)) / Math.PI) / 2.0;
+    }
+
+
+    /**
+     * Returns the longitude of the given normalized Web Mercator x coordinate
+     * @param x the normalized Web Mercator x coordinate
+     * @return the longitude
+     */
+    public static double mercatorLon(double x) {
+        return x * 360.0 - 180.0;
+    }
+
+
+    /**
+     * Returns the latitude of the given normalized Web Mercator y coordinate
+     * @param y the normalized Web Mercator y coordinate
+     * @return the latitude
+     */
+    public static double mercatorLat(double y) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1.0 - 2.0 * y))));
+    }
+}
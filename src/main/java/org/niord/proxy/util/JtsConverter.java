@@ -17,6 +17,7 @@
 package org.niord.proxy.util;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryCollection;
 import com.vividsolutions.jts.geom.GeometryFactory;
@@ -28,6 +29,8 @@ import com.vividsolutions.jts.geom.MultiPolygon;
 import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.Polygon;
 import com.vividsolutions.jts.geom.PrecisionModel;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequence;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequenceFactory;
 import com.vividsolutions.jts.io.ParseException;
 import com.vividsolutions.jts.io.WKTReader;
 import org.apache.commons.lang.StringUtils;
@@ -48,6 +51,12 @@ public class JtsConverter {
 
     final static GeometryFactory factory = new GeometryFactory(new PrecisionModel(PrecisionModel.FLOATING));
 
+    // Factory for geometries based on packed 2-dimensional coordinate sequences
+    final static GeometryFactory packedFactory = new GeometryFactory(
+            new PrecisionModel(PrecisionModel.FLOATING),
+            0,
+            new PackedCoordinateSequenceFactory(PackedCoordinateSequenceFactory.DOUBLE, 2));
+
     private JtsConverter() {
     }
 
@@ -71,7 +80,7 @@ public class JtsConverter {
      * @return the corresponding JTS geometry
      */
     public static Geometry toJtsPoint(double lat, double lon) {
-        return factory.createPoint(toJtsCoords(new double[]{lon, lat}));
+        return factory.createPoint(new Coordinate(lon, lat));
     }
 
 
@@ -110,22 +119,49 @@ public class JtsConverter {
      * @return the corresponding JTS geometry
      */
     public static Geometry toJts(GeometryVo g) {
+        return toJts(g, false);
+    }
+
+
+    /**
+     * Converts a GeoJson geometry to the corresponding JTS geometry.
+     * <p>
+     * If packed is set, the geometry will be based on packed coordinate sequences, i.e. the coordinates
+     * are stored in a single {@code double[]} array per sequence rather than as individual
+     * {@code Coordinate} objects. This is suitable for geometries that are cached for a long time.
+     *
+     * @param g the GeoJson to convert
+     * @param packed whether to use packed coordinate sequences or not
+     * @return the corresponding JTS geometry
+     */
+    public static Geometry toJts(GeometryVo g, boolean packed) {
+        return toJts(packed ? packedFactory : factory, g);
+    }
+
+
+    /**
+     * Converts a GeoJson geometry to the corresponding JTS geometry using the given geometry factory
+     * @param f the geometry factory
+     * @param g the GeoJson to convert
+     * @return the corresponding JTS geometry
+     */
+    private static Geometry toJts(GeometryFactory f, GeometryVo g) {
         if (g == null) {
             return null;
         } if (g instanceof PointVo) {
-            return factory.createPoint(toJtsCoords(((PointVo)g).getCoordinates()));
+            return f.createPoint(toJtsCoords(f, new double[][] { ((PointVo)g).getCoordinates() }));
         } else if (g instanceof LineStringVo) {
-            return factory.createLineString(toJtsCoords(((LineStringVo)g).getCoordinates()));
+            return f.createLineString(toJtsCoords(f, ((LineStringVo)g).getCoordinates()));
         } else if (g instanceof PolygonVo) {
-            return toJtsPolygon(((PolygonVo)g).getCoordinates());
+            return toJtsPolygon(f, ((PolygonVo)g).getCoordinates());
         } else if (g instanceof MultiPointVo) {
-            return factory.createMultiPoint(toJtsCoords(((MultiPointVo)g).getCoordinates()));
+            return f.createMultiPoint(toJtsCoords(f, ((MultiPointVo)g).getCoordinates()));
         } else if (g instanceof MultiLineStringVo) {
-            return toJtsMultiLineString((MultiLineStringVo)g);
+            return toJtsMultiLineString(f, (MultiLineStringVo)g);
         } else if (g instanceof MultiPolygonVo) {
-            return toJtsMultiPolygon((MultiPolygonVo)g);
+            return toJtsMultiPolygon(f, (MultiPolygonVo)g);
         } else if (g instanceof GeometryCollectionVo) {
-            return toJtsGeometryCollection((GeometryCollectionVo)g);
+            return toJtsGeometryCollection(f, (GeometryCollectionVo)g);
         } else {
             throw new UnsupportedOperationException();
         }
@@ -144,13 +180,13 @@ public class JtsConverter {
 
         Class<? extends Geometry> c = g.getClass();
         if (c.equals(Point.class)) {
-            return new PointVo(fromJtsCoords(g.getCoordinate()));
+            return new PointVo(new double[] { ((Point) g).getX(), ((Point) g).getY() });
         } else if (c.equals(LineString.class)) {
-            return new LineStringVo(fromJtsCoords(g.getCoordinates()));
+            return new LineStringVo(fromJtsCoords(((LineString) g).getCoordinateSequence()));
         } else if (c.equals(Polygon.class)) {
             return fromJtsPolygon((Polygon) g);
         } else if (c.equals(MultiPoint.class)) {
-            return new MultiPointVo(fromJtsCoords(g.getCoordinates()));
+            return fromJtsMultiPoint((MultiPoint) g);
         } else if (c.equals(MultiLineString.class)) {
             return fromJtsMultiLineString((MultiLineString) g);
         } else if (c.equals(MultiPolygon.class)) {
@@ -163,79 +199,102 @@ public class JtsConverter {
     }
 
 
-    private static Coordinate toJtsCoords(double[] coords) {
-        return new Coordinate(coords[0], coords[1]);
-    }
+    /**
+     * Creates a coordinate sequence for the given coordinates using the coordinate sequence factory
+     * of the geometry factory. Packed sequences are created directly without any intermediate objects.
+     */
+    private static CoordinateSequence toJtsCoords(GeometryFactory f, double[][] coords) {
+        if (f == packedFactory) {
+            double[] packedCoords = new double[coords.length * 2];
+            for (int i = 0; i < coords.length; i++) {
+                packedCoords[2 * i] = coords[i][0];
+                packedCoords[2 * i + 1] = coords[i][1];
+            }
+            return new PackedCoordinateSequence.Double(packedCoords, 2);
+        }
 
-    private static Coordinate[] toJtsCoords(double[][] coords) {
         Coordinate[] coordinates = new Coordinate[coords.length];
         for (int i = 0; i < coords.length; i++) {
-            coordinates[i] = toJtsCoords(coords[i]);
+            coordinates[i] = new Coordinate(coords[i][0], coords[i][1]);
         }
-        return coordinates;
+        return f.getCoordinateSequenceFactory().create(coordinates);
     }
 
     private static Polygon toJtsPolygon(double[][][] coordinates) {
-        LinearRing outerRing = factory.createLinearRing(toJtsCoords(coordinates[0]));
+        return toJtsPolygon(factory, coordinates);
+    }
+
+    private static Polygon toJtsPolygon(GeometryFactory f, double[][][] coordinates) {
+        LinearRing outerRing = f.createLinearRing(toJtsCoords(f, coordinates[0]));
 
         if (coordinates.length > 1) {
             int size = coordinates.length - 1;
             LinearRing[] innerRings = new LinearRing[size];
             for (int i = 0; i < size; i++) {
-                innerRings[i] = factory.createLinearRing(toJtsCoords(coordinates[i + 1]));
+                innerRings[i] = f.createLinearRing(toJtsCoords(f, coordinates[i + 1]));
             }
-            return factory.createPolygon(outerRing, innerRings);
+            return f.createPolygon(outerRing, innerRings);
         } else {
-            return factory.createPolygon(outerRing);
+            return f.createPolygon(outerRing);
         }
     }
 
-    private static MultiLineString toJtsMultiLineString(MultiLineStringVo multiLineString) {
+    private static MultiLineString toJtsMultiLineString(GeometryFactory f, MultiLineStringVo multiLineString) {
         int size = multiLineString.getCoordinates().length;
         LineString[] lineStrings = new LineString[size];
         for (int i = 0; i < size; i++) {
-            lineStrings[i] = factory.createLineString(toJtsCoords(multiLineString.getCoordinates()[i]));
+            lineStrings[i] = f.createLineString(toJtsCoords(f, multiLineString.getCoordinates()[i]));
         }
-        return factory.createMultiLineString(lineStrings);
+        return f.createMultiLineString(lineStrings);
     }
 
-    private static MultiPolygon toJtsMultiPolygon(MultiPolygonVo multiPolygon) {
+    private static MultiPolygon toJtsMultiPolygon(GeometryFactory f, MultiPolygonVo multiPolygon) {
         int size = multiPolygon.getCoordinates().length;
         Polygon[] polygons = new Polygon[size];
         for (int i = 0; i < size; i++) {
-            polygons[i] = toJtsPolygon(multiPolygon.getCoordinates()[i]);
+            polygons[i] = toJtsPolygon(f, multiPolygon.getCoordinates()[i]);
         }
-        return factory.createMultiPolygon(polygons);
+        return f.createMultiPolygon(polygons);
     }
 
-    private static GeometryCollection toJtsGeometryCollection(GeometryCollectionVo gc) {
+    private static GeometryCollection toJtsGeometryCollection(GeometryFactory f, GeometryCollectionVo gc) {
         int size = gc.getGeometries().length;
         Geometry[] geometries = new Geometry[size];
         for (int i = 0; i < size; i++) {
-            geometries[i] = toJts(gc.getGeometries()[i]);
+            geometries[i] = toJts(f, gc.getGeometries()[i]);
         }
-        return factory.createGeometryCollection(geometries);
+        return f.createGeometryCollection(geometries);
     }
 
 
-    private static double[] fromJtsCoords(Coordinate coordinate) {
-        return new double[] { coordinate.x, coordinate.y };
+    /**
+     * Reads the coordinates directly from the coordinate sequence. Unlike {@code getCoordinates()},
+     * this does not materialize a {@code Coordinate} object per point for packed sequences.
+     */
+    private static double[][] fromJtsCoords(CoordinateSequence seq) {
+        double[][] array = new double[seq.size()][];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = new double[] { seq.getX(i), seq.getY(i) };
+        }
+        return array;
     }
 
-    private static double[][] fromJtsCoords(Coordinate[] coordinates) {
-        double[][] array = new double[coordinates.length][];
-        for (int i = 0; i < coordinates.length; i++) {
-            array[i] = fromJtsCoords(coordinates[i]);
+    private static MultiPointVo fromJtsMultiPoint(MultiPoint multiPoint) {
+        int size = multiPoint.getNumGeometries();
+        double[][] points = new double[size][];
+        for (int i = 0; i < size; i++) {
+            Point point = (Point) multiPoint.getGeometryN(i);
+            points[i] = new double[] { point.getX(), point.getY() };
         }
-        return array;
+        return new MultiPointVo(points);
     }
 
     private static PolygonVo fromJtsPolygon(Polygon polygon) {
         int size = polygon.getNumInteriorRing() + 1;
         double[][][] rings = new double[size][][];
-        rings[0] = fromJtsCoords(polygon.getExteriorRing().getCoordinates());
+        rings[0] = fromJtsCoords(polygon.getExteriorRing().getCoordinateSequence());
         for (int i = 0; i < size - 1; i++) {
-            rings[i + 1] = fromJtsCoords(polygon.getInteriorRingN(i).getCoordinates());
+            rings[i + 1] = fromJtsCoords(polygon.getInteriorRingN(i).getCoordinateSequence());
         }
         return new PolygonVo(rings);
     }
@@ -244,7 +303,7 @@ public class JtsConverter {
         int size = multiLineString.getNumGeometries();
         double[][][] lineStrings = new double[size][][];
         for (int i = 0; i < size; i++) {
-            lineStrings[i] = fromJtsCoords(multiLineString.getGeometryN(i).getCoordinates());
+            lineStrings[i] = fromJtsCoords(((LineString) multiLineString.getGeometryN(i)).getCoordinateSequence());
         }
         return new MultiLineStringVo(lineStrings);
     }
@@ -0,0 +1,389 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.niord.proxy.util;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes geometries as Mapbox Vector Tiles, version 2.
+ * <p>
+ * The geometries must already be clipped and transformed into the tile coordinate space,
+ * i.e. with x and y in the range [0, extent] and the y axis pointing down.
+ * <p>
+ * See https://github.com/mapbox/vector-tile-spec/tree/master/2.1 for the specification.
+ * The protocol buffer encoding is handled directly, since only a handful of message types are involved.
+ */
+@SuppressWarnings("unused")
+public class VectorTileEncoder {
+
+    public static final int DEFAULT_EXTENT = 4096;
+
+    // Geometry types
+    private static final int GEOM_POINT         = 1;
+    private static final int GEOM_LINESTRING    = 2;
+    private static final int GEOM_POLYGON       = 3;
+
+    // Geometry commands
+    private static final int CMD_MOVE_TO        = 1;
+    private static final int CMD_LINE_TO        = 2;
+    private static final int CMD_CLOSE_PATH     = 7;
+
+    private final int extent;
+    private final Map<String, Layer> layers = new LinkedHashMap<>();
+
+
+    /** Constructor **/
+    public VectorTileEncoder() {
+        this(DEFAULT_EXTENT);
+    }
+
+
+    /**
+     * Constructor
+     * @param extent the extent of the tile coordinate space
+     */
+    public VectorTileEncoder(int extent) {
+        this.extent = extent;
+    }
+
+
+    /**
+     * Returns the extent of the tile coordinate space
+     * @return the extent of the tile coordinate space
+     */
+    public int getExtent() {
+        return extent;
+    }
+
+
+    /**
+     * Adds a feature to the given layer.
+     * Geometry collections are added as one feature per component geometry.
+     *
+     * @param layerName the name of the layer
+     * @param attributes the feature attributes. Null values are skipped
+     * @param geometry the geometry in tile coordinates
+     */
+    public void addFeature(String layerName, Map<String, ?> attributes, Geometry geometry) {
+        if (geometry == null || geometry.isEmpty()) {
+            return;
+        }
+
+        // Mixed geometry collections are split into features of a single geometry type
+        if (geometry.getClass().equals(GeometryCollection.class)) {
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                addFeature(layerName, attributes, geometry.getGeometryN(i));
+            }
+            return;
+        }
+
+        Feature feature = new Feature();
+
+        if (geometry instanceof Point || geometry instanceof MultiPoint) {
+            feature.type = GEOM_POINT;
+            encodePoints(feature, geometry);
+        } else if (geometry instanceof LineString || geometry instanceof MultiLineString) {
+            feature.type = GEOM_LINESTRING;
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                encodeLine(feature, ((LineString) geometry.getGeometryN(i)).getCoordinateSequence(), false, false);
+            }
+        } else if (geometry instanceof Polygon || geometry instanceof MultiPolygon) {
+            feature.type = GEOM_POLYGON;
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                Polygon polygon = (Polygon) geometry.getGeometryN(i);
+                encodeLine(feature, polygon.getExteriorRing().getCoordinateSequence(), true, true);
+                for (int r = 0; r < polygon.getNumInteriorRing(); r++) {
+                    encodeLine(feature, polygon.getInteriorRingN(r).getCoordinateSequence(), true, false);
+                }
+            }
+        }
+
+        // Skip geometries that degenerate when rounded to tile coordinates
+        if (feature.geometry.isEmpty()) {
+            return;
+        }
+
+        Layer layer = layers.computeIfAbsent(layerName, Layer::new);
+        if (attributes != null) {
+            attributes.forEach((key, value) -> {
+                if (value != null) {
+                    feature.tags.add(layer.keyIndex(key));
+                    feature.tags.add(layer.valueIndex(value));
+                }
+            });
+        }
+        layer.features.add(feature);
+    }
+
+
+    /**
+     * Returns if no features have been added to the tile
+     * @return if no features have been added to the tile
+     */
+    public boolean isEmpty() {
+        return layers.isEmpty();
+    }
+
+
+    /**
+     * Encodes the tile
+     * @return the encoded tile
+     */
+    public byte[] encode() {
+        ProtoWriter tile = new ProtoWriter();
+        for (Layer layer : layers.values()) {
+            tile.writeMessage(3, encodeLayer(layer));
+        }
+        return tile.toByteArray();
+    }
+
+
+    /** Encodes the given layer **/
+    private ProtoWriter encodeLayer(Layer layer) {
+        ProtoWriter msg = new ProtoWriter();
+        msg.writeVarintField(15, 2);
+        msg.writeStringField(1, layer.name);
+        for (Feature feature : layer.features) {
+            ProtoWriter f = new ProtoWriter();
+            f.writePackedField(2, feature.tags);
+            f.writeVarintField(3, feature.type);
+            f.writePackedField(4, feature.geometry);
+            msg.writeMessage(2, f);
+        }
+        for (String key : layer.keys.keySet()) {
+            msg.writeStringField(3, key);
+        }
+        for (Object value : layer.values.keySet()) {
+            msg.writeMessage(4, encodeValue(value));
+        }
+        msg.writeVarintField(5, extent);
+        return msg;
+    }
+
+
+    /** Encodes the given attribute value **/
+    private ProtoWriter encodeValue(Object value) {
+        ProtoWriter msg = new ProtoWriter();
+        if (value instanceof Boolean) {
+            msg.writeVarintField(7, (Boolean) value ? 1 : 0);
+        } else if (value instanceof Integer || value instanceof Long) {
+            long v = ((Number) value).longValue();
+            msg.writeVarintField(6, (v << 1) ^ (v >> 63));
+        } else if (value instanceof Number) {
+            msg.writeDoubleField(3, ((Number) value).doubleValue());
+        } else {
+            msg.writeStringField(1, value.toString());
+        }
+        return msg;
+    }
+
+
+    /** Encodes the points of a point or multi-point geometry **/
+    private void encodePoints(Feature feature, Geometry geometry) {
+        List<int[]> points = new ArrayList<>();
+        for (int i = 0; i < geometry.getNumGeometries(); i++) {
+            Point point = (Point) geometry.getGeometryN(i);
+            points.add(new int[] { (int) Math.round(point.getX()), (int) Math.round(point.getY()) });
+        }
+        feature.geometry.add(command(CMD_MOVE_TO, points.size()));
+        for (int[] point : points) {
+            feature.moveCursor(point[0], point[1]);
+        }
+    }
+
+
+    /**
+     * Encodes a line string or polygon ring.
+     * Consecutive points that are rounded to the same tile coordinate are skipped,
+     * and so are lines and rings that degenerate as a result.
+     */
+    private void encodeLine(Feature feature, CoordinateSequence seq, boolean ring, boolean exterior) {
+
+        // Round the coordinates and remove consecutive duplicates
+        int size = ring ? seq.size() - 1 : seq.size();
+        List<int[]> points = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int x = (int) Math.round(seq.getX(i));
+            int y = (int) Math.round(seq.getY(i));
+            int[] prev = points.isEmpty() ? null : points.get(points.size() - 1);
+            if (prev == null || prev[0] != x || prev[1] != y) {
+                points.add(new int[] { x, y });
+            }
+        }
+        if (ring && points.size() > 1 && samePoint(points.get(0), points.get(points.size() - 1))) {
+            points.remove(points.size() - 1);
+        }
+        if (points.size() < (ring ? 3 : 2)) {
+            return;
+        }
+
+        if (ring) {
+            // Exterior rings must have a positive area, and interior rings a negative area,
+            // as computed using the surveyor's formula in the tile coordinate space
+            long area = 0;
+            for (int i = 0; i < points.size(); i++) {
+                int[] p1 = points.get(i);
+                int[] p2 = points.get((i + 1) % points.size());
+                area += (long) p1[0] * p2[1] - (long) p2[0] * p1[1];
+            }
+            if (area == 0) {
+                return;
+            }
+            if ((area > 0) != exterior) {
+                Collections.reverse(points);
+            }
+        }
+
+        feature.geometry.add(command(CMD_MOVE_TO, 1));
+        feature.moveCursor(points.get(0)[0], points.get(0)[1]);
+        feature.geometry.add(command(CMD_LINE_TO, points.size() - 1));
+        for (int i = 1; i < points.size(); i++) {
+            feature.moveCursor(points.get(i)[0], points.get(i)[1]);
+        }
+        if (ring) {
+            feature.geometry.add(command(CMD_CLOSE_PATH, 1));
+        }
+    }
+
+
+    private static boolean samePoint(int[] p1, int[] p2) {
+        return p1[0] == p2[0] && p1[1] == p2[1];
+    }
+
+
+    private static int command(int id, int count) {
+        return (id & 0x7) | (count << 3);
+    }
+
+
+    private static int zigZag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+
+    /** A tile layer **/
+    private static class Layer {
+        final String name;
+        final List<Feature> features = new ArrayList<>();
+        final Map<String, Integer> keys = new LinkedHashMap<>();
+        final Map<Object, Integer> values = new LinkedHashMap<>();
+
+        Layer(String name) {
+            this.name = name;
+        }
+
+        int keyIndex(String key) {
+            return keys.computeIfAbsent(key, k -> keys.size());
+        }
+
+        int valueIndex(Object value) {
+            // Enums and other non-primitive values are encoded as strings
+            Object v = (value instanceof Number || value instanceof Boolean) ? value : value.toString();
+            return values.computeIfAbsent(v, k -> values.size());
+        }
+    }
+
+
+    /** A tile feature **/
+    private static class Feature {
+        int type;
+        final List<Integer> tags = new ArrayList<>();
+        final List<Integer> geometry = new ArrayList<>();
+        int cursorX, cursorY;
+
+        /** Adds the parameter integers for moving the cursor to the given position **/
+        void moveCursor(int x, int y) {
+            geometry.add(zigZag(x - cursorX));
+            geometry.add(zigZag(y - cursorY));
+            cursorX = x;
+            cursorY = y;
+        }
+    }
+
+
+    /** Minimal protocol buffer writer **/
+    private static class ProtoWriter {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        void writeTag(int field, int wireType) {
+            writeVarint((field << 3) | wireType);
+        }
+
+        void writeVarintField(int field, long value) {
+            writeTag(field, 0);
+            writeVarint(value);
+        }
+
+        void writeDoubleField(int field, double value) {
+            writeTag(field, 1);
+            long bits = Double.doubleToLongBits(value);
+            for (int i = 0; i < 8; i++) {
+                out.write((int) (bits >>> (8 * i)) & 0xFF);
+            }
+        }
+
+        void writeBytesField(int field, byte[] bytes) {
+            writeTag(field, 2);
+            writeVarint(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        void writeStringField(int field, String value) {
+            writeBytesField(field, value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void writeMessage(int field, ProtoWriter msg) {
+            writeBytesField(field, msg.toByteArray());
+        }
+
+        void writePackedField(int field, List<Integer> values) {
+            if (!values.isEmpty()) {
+                ProtoWriter packed = new ProtoWriter();
+                values.forEach(v -> packed.writeVarint(v & 0xFFFFFFFFL));
+                writeMessage(field, packed);
+            }
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+}
@@ -15,9 +15,18 @@
  */
 package org.niord.proxy.util;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
 
 /**
  * Web-related utility functions
@@ -58,6 +67,57 @@ public class WebUtils {
     }
 
 
+    /**
+     * Returns the hex-encoded SHA-1 digest of the given string, e.g. for use as an ETag or cache key
+     * @param s the string to digest
+     * @return the hex-encoded SHA-1 digest
+     */
+    public static String sha1Hex(String s) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(s.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not supported", e);
+        }
+    }
+
+
+    /**
+     * Returns a normalized textual representation of the request parameters, with sorted names and values,
+     * e.g. for use in a cache key
+     * @param request the request
+     * @param ignoredParams the names of the request parameters to leave out
+     * @return the normalized request parameters
+     */
+    public static String normalizeParameters(HttpServletRequest request, Collection<String> ignoredParams) {
+        return normalizeParameters(request, name -> !ignoredParams.contains(name));
+    }
+
+
+    /**
+     * Returns a normalized textual representation of the included request parameters, with sorted names
+     * and values, e.g. for use in a cache key
+     * @param request the request
+     * @param includedParams the filter of the request parameters to include
+     * @return the normalized request parameters
+     */
+    public static String normalizeParameters(HttpServletRequest request, Predicate<String> includedParams) {
+        Map<String, String> params = new TreeMap<>();
+        request.getParameterMap().forEach((name, values) -> {
+            if (includedParams.test(name)) {
+                String[] sortedValues = values.clone();
+                Arrays.sort(sortedValues);
+                params.put(name, String.join(",", sortedValues));
+            }
+        });
+        return params.toString();
+    }
+
+
     /**
      * URL encodes the given string without throwing a exception
      * @param s the string to encode
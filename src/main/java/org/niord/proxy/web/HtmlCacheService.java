@@ -0,0 +1,188 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.niord.proxy.web;
+
+import org.niord.proxy.conf.Settings;
+import org.niord.proxy.rest.MessageService;
+import org.niord.proxy.util.WebUtils;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Singleton;
+import javax.inject.Inject;
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-memory LRU cache of rendered HTML details pages.
+ * <p>
+ * The pages are keyed by the normalized request parameters read by the details page, the language and the
+ * version of the message snapshot that they were rendered from, and are kept both as is and gzip-compressed.
+ * Since the "active" status of messages and the rendered search date change over time, cached pages also
+ * expire after a configurable time-to-live. The cache is bounded both by the number of pages and by their
+ * total size.
+ */
+@Singleton
+@Lock(LockType.READ)
+@SuppressWarnings("unused")
+public class HtmlCacheService {
+
+    /** The request parameters read by the details page, also used for PDF cache keys. The language is added separately **/
+    static final Set<String> CACHE_KEY_PARAMS = new HashSet<>(Arrays.asList(
+            "messageId", "mainType", "areaId", "wkt", "active", "q",
+            "minLat", "minLon", "maxLat", "maxLon", "page", "pageSize", "fragment"));
+
+    @Inject
+    Settings settings;
+
+    @Inject
+    MessageService messageService;
+
+    @Inject
+    Logger log;
+
+    // The cached HTML pages, keyed by cache key, in access order. Guarded by itself
+    private final Map<String, CachedHtml> pages = new LinkedHashMap<>(16, 0.75f, true);
+
+    // The total size of the cached HTML pages
+    private long cachedBytes;
+
+    private long maxCachedBytes;
+
+
+    /** Initializes the cache **/
+    @PostConstruct
+    private void init() {
+        maxCachedBytes = settings.getHtmlCacheMaxMemory() * 1024L * 1024L;
+    }
+
+
+    /**
+     * Returns the cache key of the HTML page for the given request
+     * @param request the HTML request
+     * @param language the language of the HTML page
+     * @return the cache key of the HTML page
+     */
+    public String getCacheKey(HttpServletRequest request, String language) {
+        String params = WebUtils.normalizeParameters(request, CACHE_KEY_PARAMS::contains);
+        return WebUtils.sha1Hex(messageService.getSnapshot().getVersion() + "|" + language + "|" + params);
+    }
+
+
+    /**
+     * Returns the cached HTML page with the given key, or null if not cached or expired
+     * @param key the cache key
+     * @return the cached HTML page with the given key
+     */
+    public CachedHtml getCachedHtml(String key) {
+        synchronized (pages) {
+            CachedHtml html = pages.get(key);
+            if (html != null && System.currentTimeMillis() - html.getCreated() >= settings.getHtmlCacheTtl() * 60L * 1000L) {
+                pages.remove(key);
+                cachedBytes -= html.getSize();
+                html = null;
+            }
+            return html;
+        }
+    }
+
+
+    /**
+     * Caches the rendered HTML page with the given key
+     * @param key the cache key
+     * @param content the UTF-8 encoded HTML page
+     * @return the cached HTML page
+     */
+    public CachedHtml cacheHtml(String key, byte[] content) {
+        byte[] gzipContent = null;
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 4 + 64);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                gzip.write(content);
+            }
+            gzipContent = out.toByteArray();
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Error compressing HTML page " + key + ": " + e.getMessage());
+        }
+
+        CachedHtml html = new CachedHtml(key, content, gzipContent);
+        synchronized (pages) {
+            CachedHtml prevHtml = pages.put(key, html);
+            cachedBytes += html.getSize() - (prevHtml != null ? prevHtml.getSize() : 0);
+
+            // Evict the least recently used pages until the cache is within its bounds
+            Iterator<CachedHtml> it = pages.values().iterator();
+            while ((pages.size() > settings.getHtmlCacheMaxSize() || cachedBytes > maxCachedBytes) && it.hasNext()) {
+                cachedBytes -= it.next().getSize();
+                it.remove();
+            }
+        }
+        return html;
+    }
+
+
+    /**
+     * A rendered HTML page, along with its gzip-compressed variant
+     */
+    public static class CachedHtml {
+        private final String key;
+        private final byte[] content;
+        private final byte[] gzipContent;
+        private final long created = System.currentTimeMillis();
+
+        CachedHtml(String key, byte[] content, byte[] gzipContent) {
+            this.key = key;
+            this.content = content;
+            this.gzipContent = gzipContent;
+        }
+
+        /**
+         * Returns the ETag of the HTML page, or of its gzip-compressed variant. The ETag includes the
+         * render time, so a page that is re-rendered after the cached page expired gets a new ETag
+         **/
+        public String getETag(boolean gzip) {
+            return "\"" + key + "-" + created + (gzip ? "-gz" : "") + "\"";
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+
+        public byte[] getGzipContent() {
+            return gzipContent;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+
+        /** Returns the total size of the HTML page and its gzip-compressed variant **/
+        public long getSize() {
+            return content.length + (gzipContent != null ? gzipContent.length : 0);
+        }
+    }
+}
@@ -18,16 +18,26 @@ package org.niord.proxy.web;
 import com.itextpdf.text.DocumentException;
 import org.apache.commons.lang.StringUtils;
 import org.niord.model.message.AreaDescVo;
+import org.niord.model.message.AreaVo;
 import org.niord.model.message.MainType;
 import org.niord.model.message.MessageVo;
+import org.niord.proxy.conf.LocaleResourceService;
+import org.niord.proxy.conf.LocaleResources;
 import org.niord.proxy.conf.Settings;
+import org.niord.proxy.rest.MessageSearchParams;
 import org.niord.proxy.rest.MessageService;
+import org.niord.proxy.rest.RepositoryRestService;
 import org.niord.proxy.util.WebUtils;
+import org.niord.proxy.web.HtmlCacheService.CachedHtml;
 import org.w3c.dom.Document;
 import org.w3c.tidy.Tidy;
 import org.xhtmlrenderer.pdf.ITextRenderer;
+import org.xml.sax.helpers.DefaultHandler;
 
 import javax.inject.Inject;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.annotation.WebServlet;
@@ -36,21 +46,36 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpServletResponseWrapper;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.io.StringReader;
-import java.io.StringWriter;
-import java.text.SimpleDateFormat;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
-import java.util.ResourceBundle;
+import java.util.Objects;
 import java.util.Set;
-import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -67,6 +92,13 @@ public class MessageDetailsServlet extends HttpServlet {
 
     private static final String DETAILS_JSP_FILE = "/WEB-INF/jsp/details.jsp";
 
+    /** The number of seconds clients are asked to wait before retrying rejected PDF requests **/
+    private static final int PDF_RETRY_AFTER_SECONDS = 10;
+
+    /** Document builders used for parsing well-formed XHTML on the PDF render threads **/
+    private static final ThreadLocal<DocumentBuilder> XHTML_BUILDER =
+            ThreadLocal.withInitial(MessageDetailsServlet::newXhtmlBuilder);
+
     @Inject
     Logger log;
 
@@ -77,6 +109,51 @@ public class MessageDetailsServlet extends HttpServlet {
     @Inject
     Settings settings;
 
+    @Inject
+    LocaleResourceService localeResourceService;
+
+    @Inject
+    PdfCacheService pdfCacheService;
+
+    @Inject
+    HtmlCacheService htmlCacheService;
+
+    @Inject
+    RepositoryRestService repositoryService;
+
+    // Bounded executor used for rendering PDF files
+    private ThreadPoolExecutor pdfExecutor;
+
+    // Caches the resources referenced by the PDF files across renderings
+    private PdfResourceCache pdfResourceCache;
+
+    // Fork-join pool used for rendering the fragments of large PDF files in parallel
+    private ForkJoinPool pdfFragmentPool;
+
+
+    /** Initializes the PDF executors and resource cache **/
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        PdfImageScaler imageScaler = settings.getPdfImageDpi() > 0
+                ? new PdfImageScaler(Paths.get(settings.getPdfImageCacheRoot()), settings.getPdfImageDpi(), log)
+                : null;
+        pdfResourceCache = new PdfResourceCache(getServletContext(), repositoryService, settings, imageScaler, log);
+        int threads = settings.getPdfRenderThreads();
+        pdfExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(settings.getPdfRenderQueueSize()));
+        pdfFragmentPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+
+    /** Shuts down the PDF executors **/
+    @Override
+    public void destroy() {
+        pdfExecutor.shutdownNow();
+        pdfFragmentPool.shutdownNow();
+        super.destroy();
+    }
+
     /**
      * Main GET method
      * @param request servlet request
@@ -88,12 +165,25 @@ public class MessageDetailsServlet extends HttpServlet {
         // Determine whether to return HTML or PDF
         boolean pdf = request.getServletPath().endsWith("pdf");
 
-        // Never cache the response
-        response = WebUtils.nocache(response);
-
         // Read the request parameters
         String language = settings.language(request.getParameter("language"));
 
+        // Generated PDF files and HTML pages are cached, and must be re-validated using the ETag
+        String pdfCacheKey = null;
+        String htmlCacheKey = null;
+        response.setHeader("Cache-Control", "no-cache");
+        if (pdf) {
+            pdfCacheKey = pdfCacheService.getCacheKey(request, language);
+            if (sendCachedPdf(request, response, pdfCacheKey)) {
+                return;
+            }
+        } else {
+            htmlCacheKey = htmlCacheService.getCacheKey(request, language);
+            if (sendHtml(request, response, htmlCacheService.getCachedHtml(htmlCacheKey))) {
+                return;
+            }
+        }
+
 
         // Force the encoding and the locale based on the lang parameter
         request.setCharacterEncoding("UTF-8");
@@ -106,7 +196,8 @@ public class MessageDetailsServlet extends HttpServlet {
         try {
             // Get the messages in the given language for the requested provider
             List<MessageVo> messages = getMessages(request, language);
-            String searchText = getSearchText(request, language, messages);
+            LocaleResources resources = localeResourceService.getResources(language);
+            String searchText = getSearchText(request, resources, messages);
 
             // Register the attributes to be used on the JSP page
             request.setAttribute("messages", messages);
@@ -115,14 +206,21 @@ public class MessageDetailsServlet extends HttpServlet {
             request.setAttribute("languages", Arrays.asList(settings.getLanguages()));
             request.setAttribute("language", language);
             request.setAttribute("locale", locale);
+            request.setAttribute("resources", resources);
             request.setAttribute("timeZone", settings.getTimeZone());
             request.setAttribute("now", new Date());
             request.setAttribute("pdf", pdf);
+            request.setAttribute("xhtml", pdf && settings.isPdfXhtml());
+
+            // HTML pages are paged, whereas PDF files always contain all messages
+            if (!pdf) {
+                request.setAttribute("messages", getHtmlPage(request, messages));
+            }
 
             if (pdf) {
-                generatePdfFile(request, response);
+                generatePdfFile(request, response, pdfCacheKey);
             } else {
-                generateHtmlPage(request, response);
+                generateHtmlPage(request, response, htmlCacheKey);
             }
 
         } catch (Exception e) {
@@ -164,40 +262,119 @@ public class MessageDetailsServlet extends HttpServlet {
             active = Boolean.valueOf(request.getParameter("active"));
         }
 
-        return messageService.getMessages(language, mainTypes, areaIds, wkt, active);
+        MessageSearchParams params = new MessageSearchParams()
+                .language(language)
+                .query(request.getParameter("q"))
+                .mainTypes(mainTypes)
+                .areaIds(areaIds)
+                .wkt(wkt)
+                .extent(
+                        getDoubleParameter(request, "minLat"),
+                        getDoubleParameter(request, "minLon"),
+                        getDoubleParameter(request, "maxLat"),
+                        getDoubleParameter(request, "maxLon"))
+                .active(active);
+
+        return messageService.getMessages(params);
+    }
+
+
+    /**
+     * Returns the requested page of messages of the HTML details page, as defined by the "page" and
+     * "pageSize" request parameters. If "fragment" is true, only the message rows are rendered, for
+     * appending to the already loaded pages.
+     * <p>
+     * Registers the request attributes used for rendering the page, including the URL of the next page.
+     *
+     * @param request the HTTP servlet request
+     * @param messages all messages matching the search criteria
+     * @return the requested page of messages
+     */
+    List<MessageVo> getHtmlPage(HttpServletRequest request, List<MessageVo> messages) {
+        request.setAttribute("fragment", Boolean.valueOf(request.getParameter("fragment")));
+
+        int pageSize = getIntParameter(request, "pageSize", settings.getHtmlPageSize());
+        int page = Math.max(0, getIntParameter(request, "page", 0));
+        if (pageSize <= 0 || messages.size() <= pageSize) {
+            return messages;
+        }
+
+        int from = (int) Math.min((long) page * pageSize, messages.size());
+        int to = Math.min(from + pageSize, messages.size());
+
+        // Only render the area heading of the first message if it differs from the previous page
+        if (from > 0) {
+            AreaVo prevAreaHeading = TldFunctions.getAreaHeading(messages.get(from - 1));
+            if (prevAreaHeading != null) {
+                request.setAttribute("prevAreaHeadingId", prevAreaHeading.getId());
+            }
+        }
+        request.setAttribute("firstIndex", from);
+
+        if (to < messages.size()) {
+            StringBuilder url = new StringBuilder(request.getContextPath()).append(request.getServletPath()).append("?");
+            request.getParameterMap().forEach((name, values) -> {
+                if (!"page".equals(name) && !"fragment".equals(name)) {
+                    for (String value : values) {
+                        url.append(WebUtils.encode(name)).append("=").append(WebUtils.encode(value)).append("&");
+                    }
+                }
+            });
+            url.append("page=").append(page + 1).append("&fragment=true");
+            request.setAttribute("nextPageUrl", url.toString());
+        }
+
+        return messages.subList(from, to);
+    }
+
+
+    /** Returns the integer value of the given request parameter, or the default value if undefined or invalid **/
+    private int getIntParameter(HttpServletRequest request, String name, int defaultValue) {
+        try {
+            String value = request.getParameter(name);
+            return StringUtils.isNotBlank(value) ? Integer.parseInt(value.trim()) : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+
+    /** Returns the numeric value of the given request parameter, or null if undefined or invalid **/
+    private Double getDoubleParameter(HttpServletRequest request, String name) {
+        try {
+            String value = request.getParameter(name);
+            return StringUtils.isNotBlank(value) ? Double.valueOf(value.trim()) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
     }
 
 
     /** Formats the search criteria textually */
-    private String getSearchText(HttpServletRequest request, String language, List<MessageVo> messages) {
+    private String getSearchText(HttpServletRequest request, LocaleResources resources, List<MessageVo> messages) {
 
-        // Look up the resource bundle
-        Locale locale = new Locale(language);
-        TimeZone timeZone = TimeZone.getTimeZone(settings.getTimeZone());
-        ResourceBundle bundle = ResourceBundle.getBundle("MessageDetails", locale);
+        String language = resources.getLanguage();
         StringBuilder txt = new StringBuilder();
 
         // A specific message was requested
         if (StringUtils.isNotBlank(request.getParameter("messageId"))) {
             MessageVo msg = messages.isEmpty() ? null : messages.get(0);
             if (msg != null) {
-                txt.append(bundle.getString("filter_type_" + msg.getMainType().toString().toLowerCase()))
+                txt.append(resources.getString("filter_type_" + msg.getMainType().toString().toLowerCase()))
                     .append(" ");
             }
-            SimpleDateFormat format = new SimpleDateFormat(bundle.getString("filter_date_format"), locale);
-            format.setTimeZone(timeZone);
             space(txt).append("<span style='float: right'>")
-                    .append(format.format(new Date()))
+                    .append(resources.formatFilterDate(new Date()))
                     .append("</span>");
             return txt.toString();
         }
 
 
         // Compose filter for list of messages
-        String and = bundle.getString("filter_and");
+        String and = resources.getString("filter_and");
 
         if (StringUtils.isNotBlank(request.getParameter("active")) && Boolean.valueOf(request.getParameter("active"))) {
-            txt.append(bundle.getString("filter_active")).append(" ");
+            txt.append(resources.getString("filter_active")).append(" ");
         }
 
         // If only the virtual "General" area has been selected, prepend it to the main types
@@ -205,16 +382,16 @@ public class MessageDetailsServlet extends HttpServlet {
                 ? Arrays.stream(request.getParameterValues("areaId")).map(Integer::valueOf).collect(Collectors.toList())
                 : new ArrayList<>();
         if (areaIds.contains(GENERAL_AREA.getId()) && areaIds.size() == 1) {
-            space(txt).append(bundle.getString("filter_general")).append(" ");
+            space(txt).append(resources.getString("filter_general")).append(" ");
             areaIds.remove(GENERAL_AREA.getId());
         }
 
         // Add the selected main types
         String[] mainTypes =  request.getParameterValues("mainType");
         if (mainTypes != null && mainTypes.length == 1) {
-            txt.append(bundle.getString("filter_type_" + mainTypes[0].toLowerCase()));
+            txt.append(resources.getString("filter_type_" + mainTypes[0].toLowerCase()));
         } else {
-            txt.append(bundle.getString("filter_type_nm")).append(and).append(bundle.getString("filter_type_nw"));
+            txt.append(resources.getString("filter_type_nm")).append(and).append(resources.getString("filter_type_nw"));
         }
 
         if (!areaIds.isEmpty()) {
@@ -234,7 +411,7 @@ public class MessageDetailsServlet extends HttpServlet {
                     .collect(Collectors.toList());
 
             if (!areaNames.isEmpty()) {
-                space(txt).append(bundle.getString("filter_in_areas")).append(" ");
+                space(txt).append(resources.getString("filter_in_areas")).append(" ");
                 for (int x = 0; x < areaNames.size(); x++) {
                     if (x > 0 && x == areaNames.size() - 1) {
                         txt.append(and);
@@ -246,16 +423,14 @@ public class MessageDetailsServlet extends HttpServlet {
             }
 
             if (generalArea) {
-                space(txt).append(bundle.getString("filter_plus"))
+                space(txt).append(resources.getString("filter_plus"))
                         .append(" ")
-                        .append(bundle.getString("general_msgs").toLowerCase());
+                        .append(resources.getString("general_msgs").toLowerCase());
             }
         }
 
-        SimpleDateFormat format = new SimpleDateFormat(bundle.getString("filter_date_format"), locale);
-        format.setTimeZone(timeZone);
-        space(txt).append(bundle.getString("filter_date_at"))
-                .append(" ").append(format.format(new Date()));
+        space(txt).append(resources.getString("filter_date_at"))
+                .append(" ").append(resources.formatFilterDate(new Date()));
 
 
         // NB: WKT is actually not currently used by the client - skip it for now
@@ -276,82 +451,489 @@ public class MessageDetailsServlet extends HttpServlet {
 
 
     /**
-     * Generates a HTML page containing the MSI message details
+     * Generates a HTML page containing the MSI message details.
+     * The rendered page is cached, and then sent to the client.
+     * @param request the HTTP servlet request
+     * @param response the HTTP servlet response
+     * @param cacheKey the HTML cache key
+     */
+    private void generateHtmlPage(HttpServletRequest request, HttpServletResponse response, String cacheKey) throws IOException, ServletException {
+        ContentCaptureServletResponse capContent = new ContentCaptureServletResponse(response);
+        request.getRequestDispatcher(DETAILS_JSP_FILE).include(request, capContent);
+
+        // Check if there is content. Could be a redirect...
+        if (!capContent.hasContent()) {
+            return;
+        }
+        sendHtml(request, response, htmlCacheService.cacheHtml(cacheKey, capContent.getContentBuffer().toByteArray()));
+    }
+
+
+    /**
+     * Sends the rendered HTML page, gzip-compressed if accepted by the client, or a 304 status if
+     * the client has the current version of the page
+     * @param request the HTTP servlet request
+     * @param response the HTTP servlet response
+     * @param html the rendered HTML page
+     * @return if the HTML page was sent, i.e. if it is defined
+     */
+    private boolean sendHtml(HttpServletRequest request, HttpServletResponse response, CachedHtml html) throws IOException {
+        if (html == null) {
+            return false;
+        }
+
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        boolean gzip = html.getGzipContent() != null
+                && acceptEncoding != null
+                && acceptEncoding.toLowerCase().contains("gzip");
+
+        String etag = html.getETag(gzip);
+        response.setHeader("ETag", etag);
+        response.setHeader("Vary", "Accept-Encoding");
+        if (etag.equals(request.getHeader("If-None-Match"))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+
+        byte[] content = gzip ? html.getGzipContent() : html.getContent();
+        response.setContentType("text/html;charset=UTF-8");
+        if (gzip) {
+            response.setHeader("Content-Encoding", "gzip");
+        }
+        response.setContentLength(content.length);
+        response.getOutputStream().write(content);
+        return true;
+    }
+
+
+    /**
+     * Sends the cached PDF file with the given cache key, if it exists
      * @param request the HTTP servlet request
      * @param response the HTTP servlet response
+     * @param cacheKey the PDF cache key
+     * @return if the cached PDF file was sent
      */
-    private void generateHtmlPage(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
-        // Normal processing
-        request.getRequestDispatcher(DETAILS_JSP_FILE).include(request, response);
-        response.flushBuffer();
+    private boolean sendCachedPdf(HttpServletRequest request, HttpServletResponse response, String cacheKey) throws IOException {
+        Path file = pdfCacheService.getCachedPdf(cacheKey);
+        if (file == null) {
+            return false;
+        }
+
+        String etag = pdfCacheService.getETag(file);
+        response.setHeader("ETag", etag);
+        if (etag.equals(request.getHeader("If-None-Match"))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+
+        setPdfHeaders(request, response);
+        response.setContentLengthLong(Files.size(file));
+        Files.copy(file, response.getOutputStream());
+        log.fine("Returned cached PDF " + file);
+        return true;
+    }
+
+
+    /** Sets the content headers of a PDF response **/
+    private void setPdfHeaders(HttpServletRequest request, HttpServletResponse response) {
+        response.setContentType("application/pdf");
+        if (StringUtils.isNotBlank(request.getParameter("attachment"))) {
+            response.setHeader("Content-Disposition", "attachment; filename=" + request.getParameter("attachment"));
+        }
     }
 
 
     /**
-     * Generates a PDF file containing the MSI message details
+     * Generates a PDF file containing the MSI message details.
+     * <p>
+     * The JSP page is rendered on the request thread, whereas the expensive PDF layout and rendering
+     * is performed asynchronously on the bounded PDF executor. If the executor queue is full, the
+     * request is rejected with a 503 status and a Retry-After header before the JSP page is rendered.
+     * <p>
+     * Large PDF files are rendered as separate fragments in parallel, and then merged.
+     * <p>
+     * If the rendering times out, the render task is interrupted. Flying Saucer does not respond to
+     * interruption, so a fragment that is being laid out will run to completion, but no further
+     * fragments are rendered or merged.
+     *
      * @param request the HTTP servlet request
      * @param response the HTTP servlet response
+     * @param cacheKey the PDF cache key
      */
-    private void generatePdfFile(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+    private void generatePdfFile(HttpServletRequest request, HttpServletResponse response, String cacheKey) throws IOException, ServletException {
+        // Reject the request up front if the render queue is full, rather than after capturing the content.
+        // The queue may still fill up before the task is submitted, which is handled below
+        if (pdfExecutor.getQueue().remainingCapacity() == 0) {
+            log.warning("PDF render queue is full. Rejecting PDF request " + cacheKey);
+            WebUtils.nocache(response);
+            response.setHeader("Retry-After", String.valueOf(PDF_RETRY_AFTER_SECONDS));
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+
         //Capture the content for this request
-        ContentCaptureServletResponse capContent = new ContentCaptureServletResponse(response);
-        request.getRequestDispatcher(DETAILS_JSP_FILE).include(request, capContent);
+        List<PdfFragment> fragments = capturePdfFragments(request, response);
 
         // Check if there is content. Could be a redirect...
-        if (!capContent.hasContent()) {
+        if (fragments == null) {
             return;
         }
+        boolean xhtml = settings.isPdfXhtml();
+        String pageLabel = ((LocaleResources) request.getAttribute("resources")).getString("page");
+
+        AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(settings.getPdfRenderTimeout() * 1000L);
+        AtomicBoolean completed = new AtomicBoolean();
+        AtomicReference<Future<?>> task = new AtomicReference<>();
+
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                log.warning("Timeout generating PDF " + cacheKey);
+                Future<?> f = task.get();
+                if (f != null) {
+                    f.cancel(true);
+                }
+                completeWithError(asyncContext, completed, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            }
+            @Override public void onComplete(AsyncEvent event) {}
+            @Override public void onError(AsyncEvent event) {}
+            @Override public void onStartAsync(AsyncEvent event) {}
+        });
 
         try {
+            task.set(pdfExecutor.submit(() -> {
+                try {
+                    byte[] pdf = fragments.size() == 1 && fragments.get(0).key == null
+                            ? renderPdf(fragments.get(0).content, xhtml)
+                            : renderPdfFragments(fragments, xhtml, pageLabel);
+                    Path file = pdfCacheService.cachePdf(cacheKey, pdf);
+
+                    if (completed.compareAndSet(false, true)) {
+                        setPdfHeaders(request, response);
+                        if (file != null) {
+                            response.setHeader("ETag", pdfCacheService.getETag(file));
+                        }
+                        response.setContentLength(pdf.length);
+                        response.getOutputStream().write(pdf);
+                        asyncContext.complete();
+                    }
+                } catch (InterruptedException e) {
+                    log.warning("Interrupted generating PDF " + cacheKey);
+                } catch (Exception e) {
+                    log.log(Level.SEVERE, "Error generating PDF " + cacheKey, e);
+                    completeWithError(asyncContext, completed, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            log.warning("PDF render queue is full. Rejecting PDF request " + cacheKey);
+            completeWithError(asyncContext, completed, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }
+    }
+
+
+    /**
+     * Captures the HTML content of the PDF file. If the number of messages exceeds the PDF chunk size,
+     * the messages are split into chunks, which are captured as separate fragments, followed by a fragment
+     * for the separate-page attachments. Fragments that have previously been rendered are not captured,
+     * but returned from the fragment cache.
+     *
+     * @param request the HTTP servlet request
+     * @param response the HTTP servlet response
+     * @return the PDF fragments, or null if there is no content
+     */
+    @SuppressWarnings("unchecked")
+    private List<PdfFragment> capturePdfFragments(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+        List<MessageVo> messages = (List<MessageVo>) request.getAttribute("messages");
+        int chunkSize = settings.getPdfChunkSize();
+        if (chunkSize <= 0 || messages.size() <= chunkSize) {
+            ContentBuffer content = capturePdfContent(request, response);
+            return content == null ? null : Collections.singletonList(new PdfFragment(null, content, null));
+        }
+
+        String language = (String) request.getAttribute("language");
+        String searchText = (String) request.getAttribute("searchText");
+        List<PdfFragment> fragments = new ArrayList<>();
+
+        // Page numbers are stamped onto the pages when merging the fragments
+        request.setAttribute("pageNumbers", false);
+        request.setAttribute("attachmentPages", false);
+        List<List<MessageVo>> chunks = splitIntoChunks(messages, chunkSize);
+        for (int x = 0; x < chunks.size(); x++) {
+            String chunkSearchText = x == 0 ? searchText : "";
+            request.setAttribute("messages", chunks.get(x));
+            request.setAttribute("searchText", chunkSearchText);
+            PdfFragment fragment = capturePdfFragment(request, response,
+                    pdfCacheService.getFragmentKey(language, chunkSearchText, chunks.get(x), false));
+            if (fragment == null) {
+                return null;
+            }
+            fragments.add(fragment);
+        }
+
+        // Render the separate-page attachments after the message list
+        List<MessageVo> attachmentMessages = messages.stream()
+                .filter(m -> !TldFunctions.getAttachmentsWithDisplayType(m, "SEPARATE_PAGE").isEmpty())
+                .collect(Collectors.toList());
+        if (!attachmentMessages.isEmpty()) {
+            request.setAttribute("messages", attachmentMessages);
+            request.setAttribute("searchText", "");
+            request.setAttribute("messageList", false);
+            request.setAttribute("attachmentPages", true);
+            PdfFragment fragment = capturePdfFragment(request, response,
+                    pdfCacheService.getFragmentKey(language, "", attachmentMessages, true));
+            if (fragment == null) {
+                return null;
+            }
+            fragments.add(fragment);
+        }
+        return fragments;
+    }
+
+
+    /** Returns the cached PDF fragment with the given key, or captures the HTML content of the fragment **/
+    private PdfFragment capturePdfFragment(HttpServletRequest request, HttpServletResponse response, String key) throws IOException, ServletException {
+        byte[] pdf = pdfCacheService.getCachedFragment(key);
+        if (pdf != null) {
+            return new PdfFragment(key, null, pdf);
+        }
+        ContentBuffer content = capturePdfContent(request, response);
+        return content == null ? null : new PdfFragment(key, content, null);
+    }
+
+
+    /** Captures the HTML content of the JSP page, or returns null if there is no content **/
+    private ContentBuffer capturePdfContent(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+        ContentCaptureServletResponse capContent = new ContentCaptureServletResponse(response);
+        request.getRequestDispatcher(DETAILS_JSP_FILE).include(request, capContent);
+        return capContent.hasContent() ? capContent.getContentBuffer() : null;
+    }
+
+
+    /**
+     * Splits the messages into chunks of at least chunkSize messages, preferably at area heading changes,
+     * and at most twice the chunk size
+     * @param messages the messages to split
+     * @param chunkSize the chunk size
+     * @return the message chunks
+     */
+    static List<List<MessageVo>> splitIntoChunks(List<MessageVo> messages, int chunkSize) {
+        List<List<MessageVo>> chunks = new ArrayList<>();
+        List<MessageVo> chunk = new ArrayList<>();
+        Integer prevHeadingId = null;
+        for (MessageVo message : messages) {
+            AreaVo heading = TldFunctions.getAreaHeading(message);
+            Integer headingId = heading != null ? heading.getId() : null;
+            boolean areaChange = !chunk.isEmpty() && !Objects.equals(headingId, prevHeadingId);
+            if (chunk.size() >= 2 * chunkSize || (chunk.size() >= chunkSize && areaChange)) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+            }
+            chunk.add(message);
+            prevHeadingId = headingId;
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+
+    /**
+     * Renders the PDF fragments in parallel on the fork-join pool, and merges them into a single PDF file
+     * @param fragments the PDF fragments
+     * @param xhtml whether the content has been rendered as well-formed XHTML
+     * @param pageLabel the localized "page" label used for the page number footer
+     * @return the PDF file
+     */
+    private byte[] renderPdfFragments(List<PdfFragment> fragments, boolean xhtml, String pageLabel) throws Exception {
+        long t0 = System.currentTimeMillis();
+
+        List<ForkJoinTask<byte[]>> tasks = fragments.stream()
+                .map(f -> pdfFragmentPool.submit(() -> renderPdfFragment(f, xhtml)))
+                .collect(Collectors.toList());
+        List<byte[]> pdfs = new ArrayList<>();
+        try {
+            for (ForkJoinTask<byte[]> task : tasks) {
+                pdfs.add(task.get());
+            }
+        } catch (InterruptedException e) {
+            // Fragments not yet started are skipped, whereas running fragments cannot be interrupted
+            tasks.forEach(task -> task.cancel(true));
+            throw e;
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+
+        byte[] pdf = PdfFragmentMerger.merge(pdfs, pageLabel);
+        log.info(String.format("Completed PDF generation from %d fragments in %d ms",
+                fragments.size(), System.currentTimeMillis() - t0));
+        return pdf;
+    }
+
+
+    /** Renders and caches the PDF fragment, unless it has been cached already **/
+    private byte[] renderPdfFragment(PdfFragment fragment, boolean xhtml) throws DocumentException {
+        if (fragment.pdf != null) {
+            return fragment.pdf;
+        }
+        byte[] pdf = renderPdf(fragment.content, xhtml);
+        pdfCacheService.cacheFragment(fragment.key, pdf);
+        return pdf;
+    }
+
+
+    /**
+     * Renders the HTML content as a PDF file.
+     * <p>
+     * If the content has been rendered as well-formed XHTML, it is parsed directly. Otherwise, or if the
+     * content turns out not to be well-formed, it is cleaned up using JTidy.
+     *
+     * @param content the UTF-8 encoded HTML content
+     * @param xhtml whether the content has been rendered as well-formed XHTML
+     * @return the PDF file
+     */
+    private byte[] renderPdf(ContentBuffer content, boolean xhtml) throws DocumentException {
+        Document xhtmlContent = null;
+        if (xhtml) {
+            try {
+                xhtmlContent = parseXhtml(content);
+            } catch (Exception e) {
+                log.log(Level.WARNING, "Error parsing XHTML. Falling back to JTidy: " + e.getMessage());
+            }
+        }
+        if (xhtmlContent == null) {
             // Clean up the response HTML to a document that is readable by the XHTML renderer.
-            String content = capContent.getContent();
-            Document xhtmlContent = cleanHtml(content);
+            xhtmlContent = cleanHtml(content);
+        }
+
+        long t0 = System.currentTimeMillis();
+        String baseUri = "http://localhost:" + System.getProperty("swarm.http.port", "8080");
+        log.info("Generating PDF for " + baseUri);
+
+        // Resolve local resources directly rather than via HTTP. The base URI is used for other resources
+        ITextRenderer renderer = new ITextRenderer();
+        PdfUserAgent.install(renderer, pdfResourceCache);
+        renderer.setDocument(xhtmlContent, baseUri);
+        renderer.layout();
+
+        ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+        renderer.createPDF(pdf);
 
-            long t0 = System.currentTimeMillis();
-            String baseUri = "http://localhost:" + System.getProperty("swarm.http.port", "8080");
-            log.info("Generating PDF for " + baseUri);
+        log.info("Completed PDF generation in " + (System.currentTimeMillis() - t0) + " ms");
+        return pdf.toByteArray();
+    }
 
-            ITextRenderer renderer = new ITextRenderer();
-            renderer.setDocument(xhtmlContent, baseUri);
-            renderer.layout();
 
-            response.setContentType("application/pdf");
-            if (StringUtils.isNotBlank(request.getParameter("attachment"))) {
-                response.setHeader("Content-Disposition", "attachment; filename=" + request.getParameter("attachment"));
+    /**
+     * Completes the asynchronous request with the given error status, unless it has already been completed
+     * @param asyncContext the asynchronous context
+     * @param completed whether the request has been completed
+     * @param status the error status
+     */
+    private void completeWithError(AsyncContext asyncContext, AtomicBoolean completed, int status) {
+        if (completed.compareAndSet(false, true)) {
+            HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+            if (!response.isCommitted()) {
+                response.reset();
+                WebUtils.nocache(response);
+                response.setStatus(status);
+                if (status == HttpServletResponse.SC_SERVICE_UNAVAILABLE) {
+                    response.setHeader("Retry-After", String.valueOf(PDF_RETRY_AFTER_SECONDS));
+                }
             }
-            OutputStream browserStream = response.getOutputStream();
-            renderer.createPDF(browserStream);
+            asyncContext.complete();
+        }
+    }
+
+
+    /**
+     * Parses the well-formed XHTML without validation or loading external entities
+     * @param content the UTF-8 encoded XHTML
+     * @return the resulting XHTML document
+     */
+    public Document parseXhtml(ContentBuffer content) throws Exception {
+        DocumentBuilder builder = XHTML_BUILDER.get();
+        builder.reset();
+        builder.setErrorHandler(new DefaultHandler());
+        return builder.parse(content.toInputStream());
+    }
+
 
-            log.info("Completed PDF generation in " + (System.currentTimeMillis() - t0) + " ms");
-        } catch (DocumentException e) {
-            throw new ServletException(e);
+    /** Creates a non-validating document builder for parsing XHTML **/
+    private static DocumentBuilder newXhtmlBuilder() {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setValidating(false);
+            factory.setNamespaceAware(false);
+            try {
+                factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+            } catch (ParserConfigurationException ignored) {
+            }
+            return factory.newDocumentBuilder();
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException("Error creating XHTML document builder", e);
         }
     }
 
 
     /**
      * Use JTidy to clean up the HTML
-     * @param html the HTML to clean up
+     * @param html the UTF-8 encoded HTML to clean up
      * @return the resulting XHTML
      */
-    public Document cleanHtml(String html) {
+    public Document cleanHtml(ContentBuffer html) {
         Tidy tidy = new Tidy();
 
         tidy.setShowWarnings(false); //to hide errors
         tidy.setQuiet(true); //to hide warning
+        tidy.setInputEncoding("UTF-8");
 
         tidy.setXHTML(true);
-        return tidy.parseDOM(new StringReader(html), new StringWriter());
+        return tidy.parseDOM(html.toInputStream(), null);
+    }
+
+
+    /**
+     * A fragment of a PDF file, defined either by its captured HTML content or by its cached PDF.
+     * A PDF file rendered as a single document has no fragment key.
+     */
+    private static class PdfFragment {
+        final String key;
+        final ContentBuffer content;
+        final byte[] pdf;
+
+        PdfFragment(String key, ContentBuffer content, byte[] pdf) {
+            this.key = key;
+            this.content = content;
+            this.pdf = pdf;
+        }
+    }
+
+
+    /**
+     * Byte buffer that exposes its content as an input stream without copying it
+     */
+    public static class ContentBuffer extends ByteArrayOutputStream {
+
+        /**
+         * Returns an input stream for the content of the buffer
+         * @return an input stream for the content of the buffer
+         */
+        public InputStream toInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
     }
 
 
     /**
      * Response wrapper
-     * Collects all contents
+     * Collects all contents as UTF-8 encoded bytes
      */
     public static class ContentCaptureServletResponse extends HttpServletResponseWrapper {
 
-        private StringWriter contentWriter;
+        private ContentBuffer contentBuffer;
         private PrintWriter writer;
 
         /**
@@ -377,8 +959,8 @@ public class MessageDetailsServlet extends HttpServlet {
         @Override
         public PrintWriter getWriter() throws IOException {
             if(writer == null){
-                contentWriter = new StringWriter();
-                writer = new PrintWriter(contentWriter);
+                contentBuffer = new ContentBuffer();
+                writer = new PrintWriter(new OutputStreamWriter(contentBuffer, StandardCharsets.UTF_8));
             }
             return writer;
         }
@@ -400,7 +982,21 @@ public class MessageDetailsServlet extends HttpServlet {
                 return "<html/>";
             }
             writer.flush();
-            return contentWriter.toString();
+            return new String(contentBuffer.toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Returns the UTF-8 encoded contents of the response
+         * @return the UTF-8 encoded contents of the response
+         */
+        public ContentBuffer getContentBuffer() {
+            if (writer == null) {
+                ContentBuffer buffer = new ContentBuffer();
+                buffer.write("<html/>".getBytes(StandardCharsets.UTF_8), 0, 7);
+                return buffer;
+            }
+            writer.flush();
+            return contentBuffer;
         }
     }
 }
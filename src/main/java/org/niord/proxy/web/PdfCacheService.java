@@ -0,0 +1,286 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.niord.proxy.web;
+
+import org.apache.commons.io.IOUtils;
+import org.niord.model.message.MessageVo;
+import org.niord.proxy.conf.Settings;
+import org.niord.proxy.rest.MessageService;
+import org.niord.proxy.util.WebUtils;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.inject.Inject;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Disk-backed LRU cache of generated PDF files.
+ * <p>
+ * The PDF files are keyed by the normalized request parameters read by the details page, the language and the version of
+ * the message snapshot that they were generated from, so a cached PDF is never served for an updated
+ * message list. Since the "active" status of messages changes over time, cached files also expire
+ * after a configurable time-to-live.
+ * <p>
+ * Optionally, a configured list of popular PDF requests are pre-rendered after each message list update.
+ * <p>
+ * Additionally, the PDF fragments used for rendering large PDF files in parallel are cached. The fragments
+ * are keyed by the rendered messages and their last update time, and thus survive message list updates.
+ */
+@Singleton
+@Lock(LockType.READ)
+@SuppressWarnings("unused")
+public class PdfCacheService {
+
+    /** The sub-directory of the configured cache root used for the cached files **/
+    static final String CACHE_DIR = "niord-pdf-cache";
+
+    @Inject
+    Settings settings;
+
+    @Inject
+    MessageService messageService;
+
+    @Inject
+    Logger log;
+
+    private Path cacheRoot;
+
+    // The cached PDF files, keyed by cache key, in access order
+    private Map<String, Path> files;
+
+    // The cached PDF fragments, keyed by fragment key, in access order
+    private Map<String, Path> fragments;
+
+    // The snapshot version for which popular PDFs have been pre-rendered
+    private volatile long prerenderedVersion = -1;
+
+
+    /** Initializes the cache **/
+    @PostConstruct
+    private void init() {
+        files = newFileCache(settings.getPdfCacheMaxSize());
+        fragments = newFileCache(settings.getPdfFragmentCacheMaxSize());
+
+        // Work in a dedicated sub-directory, so that a misconfigured cache root is never cleaned up
+        cacheRoot = Paths.get(settings.getPdfCacheRoot()).resolve(CACHE_DIR);
+        try {
+            Files.createDirectories(cacheRoot);
+
+            // Snapshot versions start over upon restart, so files cached by a previous run are discarded.
+            // Only delete the files written by this service
+            try (DirectoryStream<Path> cachedFiles = Files.newDirectoryStream(cacheRoot, "*.{pdf,tmp}")) {
+                for (Path file : cachedFiles) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            log.log(Level.SEVERE, "Error initializing PDF cache dir: " + cacheRoot, e);
+        }
+    }
+
+
+    /**
+     * Returns the cache key of the PDF for the given request
+     * @param request the PDF request
+     * @param language the language of the PDF
+     * @return the cache key of the PDF
+     */
+    public String getCacheKey(HttpServletRequest request, String language) {
+        // Normalize the request parameters read by the details page by sorting names and values
+        String params = WebUtils.normalizeParameters(request, HtmlCacheService.CACHE_KEY_PARAMS::contains);
+        return WebUtils.sha1Hex(messageService.getSnapshot().getVersion() + "|" + language + "|" + params);
+    }
+
+
+    /**
+     * Returns the cached PDF file with the given key, or null if not cached or expired
+     * @param key the cache key
+     * @return the cached PDF file with the given key
+     */
+    public Path getCachedPdf(String key) {
+        Path file = files.get(key);
+        if (file != null) {
+            long age = System.currentTimeMillis() - file.toFile().lastModified();
+            if (Files.exists(file) && age < settings.getPdfCacheTtl() * 60L * 1000L) {
+                return file;
+            }
+            files.remove(key);
+            file.toFile().delete();
+        }
+        return null;
+    }
+
+
+    /**
+     * Caches the generated PDF with the given key
+     * @param key the cache key
+     * @param pdf the generated PDF
+     * @return the cached PDF file, or null upon errors
+     */
+    public Path cachePdf(String key, byte[] pdf) {
+        Path file = writeFile(key, pdf);
+        if (file != null) {
+            files.put(key, file);
+        }
+        return file;
+    }
+
+
+    /** Writes the PDF to the cache file with the given key, and returns the file, or null upon errors **/
+    private Path writeFile(String key, byte[] pdf) {
+        Path file = cacheRoot.resolve(key + ".pdf");
+        try {
+            // Write to a temporary file first, so that concurrent readers never see a partial file
+            Path tmpFile = Files.createTempFile(cacheRoot, key, ".tmp");
+            Files.write(tmpFile, pdf);
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING);
+            return file;
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Error caching PDF " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+
+    /** Returns a new LRU cache of files, which deletes the eldest files when the max size is exceeded **/
+    private static Map<String, Path> newFileCache(int maxSize) {
+        return Collections.synchronizedMap(new LinkedHashMap<String, Path>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Path> eldest) {
+                if (size() > maxSize) {
+                    eldest.getValue().toFile().delete();
+                    return true;
+                }
+                return false;
+            }
+        });
+    }
+
+
+    /**
+     * Returns the key of the PDF fragment for the given messages. The key depends on the rendered messages
+     * and their last update time, but not on the message list version, so fragments for unchanged messages
+     * can be re-used across message list updates
+     * @param language the language of the PDF fragment
+     * @param searchText the search text rendered in the PDF fragment
+     * @param messages the messages rendered in the PDF fragment
+     * @param attachmentPages whether the fragment contains the separate-page attachments of the messages
+     * @return the key of the PDF fragment
+     */
+    public String getFragmentKey(String language, String searchText, List<MessageVo> messages, boolean attachmentPages) {
+        StringBuilder key = new StringBuilder()
+                .append(language).append("|")
+                .append(searchText).append("|")
+                .append(attachmentPages);
+        for (MessageVo message : messages) {
+            key.append("|").append(message.getId())
+                    .append(":").append(message.getUpdated() != null ? message.getUpdated().getTime() : 0);
+        }
+        return "fragment_" + WebUtils.sha1Hex(key.toString());
+    }
+
+
+    /**
+     * Returns the cached PDF fragment with the given key, or null if not cached
+     * @param key the fragment key
+     * @return the cached PDF fragment with the given key
+     */
+    public byte[] getCachedFragment(String key) {
+        Path file = fragments.get(key);
+        if (file != null) {
+            try {
+                return Files.readAllBytes(file);
+            } catch (IOException e) {
+                fragments.remove(key);
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Caches the rendered PDF fragment with the given key
+     * @param key the fragment key
+     * @param pdf the rendered PDF fragment
+     */
+    public void cacheFragment(String key, byte[] pdf) {
+        Path file = writeFile(key, pdf);
+        if (file != null) {
+            fragments.put(key, file);
+        }
+    }
+
+
+    /**
+     * Returns the ETag of the cached PDF file. The ETag includes the time the file was written, so a PDF
+     * that is re-rendered after the cached file expired gets a new ETag, even though the cache key is unchanged
+     * @param file the cached PDF file
+     * @return the ETag of the PDF
+     */
+    public String getETag(Path file) {
+        String name = file.getFileName().toString();
+        return "\"" + name.substring(0, name.length() - ".pdf".length())
+                + "-" + file.toFile().lastModified() + "\"";
+    }
+
+
+    /**
+     * Periodically checks if the message list has been updated, and if so,
+     * pre-renders the configured popular PDF requests
+     */
+    @Schedule(second = "42", minute = "*", hour = "*")
+    public void prerenderPdfs() {
+        long version = messageService.getSnapshot().getVersion();
+        if (settings.getPdfPrerender().length == 0 || version == 0 || version == prerenderedVersion) {
+            return;
+        }
+        prerenderedVersion = version;
+
+        String baseUri = "http://localhost:" + System.getProperty("swarm.http.port", "8080");
+        for (String query : settings.getPdfPrerender()) {
+            long t0 = System.currentTimeMillis();
+            try {
+                HttpURLConnection con = (HttpURLConnection) new URL(baseUri + "/details.pdf?" + query).openConnection();
+                con.setConnectTimeout(10000);
+                con.setReadTimeout(120000);
+                try (InputStream is = con.getInputStream()) {
+                    IOUtils.skip(is, Long.MAX_VALUE);
+                }
+                log.info(String.format("Pre-rendered PDF for %s in %d ms", query, System.currentTimeMillis() - t0));
+            } catch (Exception e) {
+                log.log(Level.WARNING, "Error pre-rendering PDF for " + query + ": " + e.getMessage());
+            }
+        }
+    }
+}
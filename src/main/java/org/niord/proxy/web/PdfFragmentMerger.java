@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.niord.proxy.web;
+
+import com.itextpdf.text.BaseColor;
+import com.itextpdf.text.Document;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.Element;
+import com.itextpdf.text.Font;
+import com.itextpdf.text.Phrase;
+import com.itextpdf.text.Rectangle;
+import com.itextpdf.text.pdf.BaseFont;
+import com.itextpdf.text.pdf.ColumnText;
+import com.itextpdf.text.pdf.PdfCopy;
+import com.itextpdf.text.pdf.PdfImportedPage;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.SimpleBookmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Merges separately rendered PDF fragments into a single PDF document.
+ * <p>
+ * The pages of the fragments are copied in order, the bookmarks of the fragments are shifted to
+ * the merged page numbers, and each page is stamped with a "page x / y" footer, matching the footer
+ * of the details-pdf.css style sheet.
+ */
+@SuppressWarnings("unused")
+public class PdfFragmentMerger {
+
+    // Position of the page number footer, in points from the bottom right corner of the page
+    static final float PAGE_NUMBER_RIGHT = 28.35f;
+    static final float PAGE_NUMBER_BOTTOM = 25f;
+    static final float PAGE_NUMBER_FONT_SIZE = 9f;
+
+    private PdfFragmentMerger() {
+    }
+
+
+    /**
+     * Merges the PDF fragments into a single PDF document
+     * @param fragments the PDF fragments to merge
+     * @param pageLabel the localized "page" label used for the page number footer
+     * @return the merged PDF document
+     */
+    public static byte[] merge(List<byte[]> fragments, String pageLabel) throws IOException, DocumentException {
+
+        List<PdfReader> readers = new ArrayList<>();
+        int pageCount = 0;
+        for (byte[] fragment : fragments) {
+            PdfReader reader = new PdfReader(fragment);
+            readers.add(reader);
+            pageCount += reader.getNumberOfPages();
+        }
+
+        Font font = new Font(
+                BaseFont.createFont(BaseFont.HELVETICA, BaseFont.WINANSI, BaseFont.NOT_EMBEDDED),
+                PAGE_NUMBER_FONT_SIZE,
+                Font.NORMAL,
+                BaseColor.GRAY);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Document document = new Document();
+        PdfCopy copy = new PdfCopy(document, out);
+        document.open();
+
+        List<HashMap<String, Object>> outlines = new ArrayList<>();
+        int pageNo = 0;
+        for (PdfReader reader : readers) {
+
+            // Shift the fragment bookmarks to the merged page numbers, and skip the first bookmark if it
+            // continues the last bookmark of the previous fragment
+            List<HashMap<String, Object>> bookmarks = SimpleBookmark.getBookmark(reader);
+            if (bookmarks != null && !bookmarks.isEmpty()) {
+                SimpleBookmark.shiftPageNumbers(bookmarks, pageNo, null);
+                if (!outlines.isEmpty() && Objects.equals(
+                        outlines.get(outlines.size() - 1).get("Title"),
+                        bookmarks.get(0).get("Title"))) {
+                    bookmarks.remove(0);
+                }
+                outlines.addAll(bookmarks);
+            }
+
+            for (int p = 1; p <= reader.getNumberOfPages(); p++) {
+                pageNo++;
+                PdfImportedPage page = copy.getImportedPage(reader, p);
+                Rectangle size = reader.getPageSize(p);
+                PdfCopy.PageStamp stamp = copy.createPageStamp(page);
+                ColumnText.showTextAligned(
+                        stamp.getOverContent(),
+                        Element.ALIGN_RIGHT,
+                        new Phrase(pageLabel + " " + pageNo + " / " + pageCount, font),
+                        size.getRight() - PAGE_NUMBER_RIGHT,
+                        size.getBottom() + PAGE_NUMBER_BOTTOM,
+                        0);
+                stamp.alterContents();
+                copy.addPage(page);
+            }
+            copy.freeReader(reader);
+            reader.close();
+        }
+
+        if (!outlines.isEmpty()) {
+            copy.setOutlines(outlines);
+        }
+        document.close();
+        return out.toByteArray();
+    }
+}
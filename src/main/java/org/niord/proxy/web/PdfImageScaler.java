@@ -0,0 +1,209 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.niord.proxy.web;
+
+import org.niord.proxy.util.WebUtils;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Produces print-resolution derivatives of repository images embedded in PDF files.
+ * <p>
+ * Images larger than the printable area of an A4 page at the configured resolution are scaled down,
+ * and the derivatives are cached on disk, keyed by the image file, its ETag and the target size.
+ * Derivatives of previous versions of an image are deleted when a new derivative is created.
+ * Smaller images, and images that cannot be decoded, are used as is.
+ */
+@SuppressWarnings("unused")
+public class PdfImageScaler {
+
+    // The printable area of an A4 page, in millimeters, as defined by details-pdf.css
+    static final double PRINTABLE_WIDTH_MM = 190;
+    static final double PRINTABLE_HEIGHT_MM = 267;
+
+    static final float JPEG_QUALITY = 0.85f;
+
+    private final Path cacheRoot;
+    private final int maxWidth;
+    private final int maxHeight;
+    private final Logger log;
+
+
+    /**
+     * Constructor
+     * @param cacheRoot the directory of the cached image derivatives
+     * @param dpi the print resolution in dots per inch
+     * @param log the log
+     */
+    public PdfImageScaler(Path cacheRoot, int dpi, Logger log) {
+        this.cacheRoot = cacheRoot;
+        this.maxWidth = (int) Math.round(PRINTABLE_WIDTH_MM * dpi / 25.4);
+        this.maxHeight = (int) Math.round(PRINTABLE_HEIGHT_MM * dpi / 25.4);
+        this.log = log;
+        try {
+            Files.createDirectories(cacheRoot);
+        } catch (IOException e) {
+            log.log(Level.SEVERE, "Error initializing PDF image cache dir: " + cacheRoot, e);
+        }
+    }
+
+
+    /**
+     * Returns the print-resolution derivative of the image file, or the image file itself if it
+     * need not be scaled down, or is not a supported image
+     * @param file the image file
+     * @param path the repository path of the image file
+     * @param etag the ETag of the image file
+     * @return the print-resolution derivative of the image file
+     */
+    public Path getPrintImage(Path file, String path, String etag) {
+        String format = getFormat(file);
+        if (format == null) {
+            return file;
+        }
+
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            if (in == null) {
+                return file;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return file;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                double scale = Math.min((double) maxWidth / width, (double) maxHeight / height);
+                if (scale >= 1.0) {
+                    return file;
+                }
+                int targetWidth = Math.max(1, (int) Math.round(width * scale));
+                int targetHeight = Math.max(1, (int) Math.round(height * scale));
+
+                String prefix = WebUtils.sha1Hex(path);
+                Path derivative = cacheRoot.resolve(String.format("%s_%s_%dx%d.%s",
+                        prefix, WebUtils.sha1Hex(etag), targetWidth, targetHeight, format));
+                if (Files.exists(derivative)) {
+                    return derivative;
+                }
+
+                // Sub-sample whilst decoding, so that large images are never fully decoded into memory
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = Math.max(1, (int) Math.floor(1.0 / scale));
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                BufferedImage image = reader.read(0, param);
+
+                writeImage(scale(image, targetWidth, targetHeight, format), format, derivative);
+                deletePreviousDerivatives(prefix, derivative);
+                log.info(String.format("Scaled PDF image %s from %dx%d to %dx%d",
+                        path, width, height, targetWidth, targetHeight));
+                return derivative;
+            } finally {
+                reader.dispose();
+            }
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Error scaling PDF image " + path + ": " + e.getMessage());
+            return file;
+        }
+    }
+
+
+    /** Returns the derivative image format for the image file, or null if not a supported image **/
+    private String getFormat(Path file) {
+        String name = file.getFileName().toString().toLowerCase();
+        if (name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+            return "jpg";
+        } else if (name.endsWith(".png") || name.endsWith(".gif")) {
+            return "png";
+        }
+        return null;
+    }
+
+
+    /** Scales the image to the target size **/
+    private BufferedImage scale(BufferedImage image, int width, int height, String format) {
+        int type = "jpg".equals(format) ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+        BufferedImage result = new BufferedImage(width, height, type);
+        Graphics2D g = result.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return result;
+    }
+
+
+    /** Writes the image to the given file, via a temporary file **/
+    private void writeImage(BufferedImage image, String format, Path file) throws IOException {
+        Path tmpFile = Files.createTempFile(cacheRoot, "image", ".tmp");
+        try {
+            if ("jpg".equals(format)) {
+                ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+                try (ImageOutputStream out = ImageIO.createImageOutputStream(tmpFile.toFile())) {
+                    ImageWriteParam param = writer.getDefaultWriteParam();
+                    param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                    param.setCompressionQuality(JPEG_QUALITY);
+                    writer.setOutput(out);
+                    writer.write(null, new IIOImage(image, null, null), param);
+                } finally {
+                    writer.dispose();
+                }
+            } else {
+                ImageIO.write(image, format, tmpFile.toFile());
+            }
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+
+    /** Deletes the derivatives of previous versions of the image **/
+    private void deletePreviousDerivatives(String prefix, Path derivative) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(cacheRoot, prefix + "_*")) {
+            for (Path file : files) {
+                if (!file.equals(derivative)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Error deleting previous derivatives of " + derivative + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.niord.proxy.web;
+
+import com.itextpdf.text.Image;
+import org.apache.commons.io.IOUtils;
+import org.niord.proxy.conf.Settings;
+import org.niord.proxy.rest.RepositoryRestService;
+import org.niord.proxy.util.WebUtils;
+
+import javax.servlet.ServletContext;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Resolves the resources referenced by the HTML used for generating PDF files, i.e. style sheets,
+ * images and repository files, directly from the web application and the repository root,
+ * rather than via HTTP requests to the proxy itself.
+ * <p>
+ * The resource data and the decoded images are cached across PDF renderings, in LRU caches bounded
+ * by their total size. Resources larger than {@link #MAX_CACHED_RESOURCE_SIZE} are not cached.
+ * Repository files are cached by their path, last-modified time and size, and large repository
+ * images are replaced by their print-resolution derivatives, if an image scaler is defined.
+ */
+@SuppressWarnings("unused")
+public class PdfResourceCache {
+
+    static final String REPO_FILE_PATH = "/rest/repo/file/";
+    static final long MAX_CACHED_BYTES = 32L * 1024L * 1024L;
+    static final int MAX_CACHED_RESOURCE_SIZE = 4 * 1024 * 1024;
+
+    private final ServletContext servletContext;
+    private final RepositoryRestService repositoryService;
+    private final Settings settings;
+    private final PdfImageScaler imageScaler;
+    private final Logger log;
+
+    private final LruCache<byte[]> resources = new LruCache<>();
+    private final LruCache<Image> images = new LruCache<>();
+
+
+    /**
+     * Constructor
+     * @param servletContext the servlet context used for resolving web application resources
+     * @param repositoryService the repository service used for resolving repository files
+     * @param settings the settings
+     * @param imageScaler the optional scaler used for producing print-resolution repository images
+     * @param log the log
+     */
+    public PdfResourceCache(ServletContext servletContext, RepositoryRestService repositoryService,
+                            Settings settings, PdfImageScaler imageScaler, Logger log) {
+        this.servletContext = servletContext;
+        this.repositoryService = repositoryService;
+        this.settings = settings;
+        this.imageScaler = imageScaler;
+        this.log = log;
+    }
+
+
+    /**
+     * Returns the data of the resource with the given URI, or null if the resource is not a local resource
+     * @param uri the absolute URI of the resource
+     * @return the data of the resource
+     */
+    public byte[] getResource(String uri) {
+        String key = getCacheKey(uri);
+        if (key == null) {
+            return null;
+        }
+        byte[] data = resources.get(key);
+        if (data == null) {
+            data = loadResource(uri);
+            if (data != null) {
+                resources.put(key, data, data.length);
+            }
+        }
+        return data;
+    }
+
+
+    /**
+     * Returns a copy of the decoded image with the given URI, scaled by the given dots per pixel,
+     * or null if the image is not a local resource
+     * @param uri the absolute URI of the image
+     * @param dotsPerPixel the number of dots per pixel of the PDF output device
+     * @return a copy of the decoded image
+     */
+    public Image getImage(String uri, float dotsPerPixel) {
+        String key = getCacheKey(uri);
+        if (key == null) {
+            return null;
+        }
+        key += "_" + dotsPerPixel;
+
+        Image image = images.get(key);
+        if (image == null) {
+            byte[] data = getResource(uri);
+            if (data == null) {
+                return null;
+            }
+            try {
+                image = Image.getInstance(data);
+                if (dotsPerPixel != 1.0f) {
+                    image.scaleAbsolute(image.getPlainWidth() * dotsPerPixel, image.getPlainHeight() * dotsPerPixel);
+                }
+                // The decoded image data is estimated by the raw image data, if any, or the image file size
+                byte[] rawData = image.getRawData();
+                images.put(key, image, Math.max(data.length, rawData != null ? rawData.length : 0));
+            } catch (Exception e) {
+                log.log(Level.WARNING, "Error decoding image " + uri + ": " + e.getMessage());
+                return null;
+            }
+        }
+
+        // The renderer may re-scale the image, so return a copy sharing the decoded image data
+        return Image.getInstance(image);
+    }
+
+
+    /**
+     * Returns the cache key of the resource with the given URI, or null if the resource is not a local resource
+     * @param uri the absolute URI of the resource
+     * @return the cache key of the resource
+     */
+    private String getCacheKey(String uri) {
+        String path = getLocalPath(uri);
+        if (path == null) {
+            return null;
+        }
+        if (path.startsWith(REPO_FILE_PATH)) {
+            Path file = getRepoFile(path);
+            String etag = getETag(file);
+            return etag != null ? path + "_" + etag : null;
+        }
+        return path;
+    }
+
+
+    /** Loads the data of the local resource with the given URI **/
+    private byte[] loadResource(String uri) {
+        String path = getLocalPath(uri);
+        try {
+            if (path.startsWith(REPO_FILE_PATH)) {
+                Path file = getRepoFile(path);
+                if (file != null && imageScaler != null) {
+                    file = imageScaler.getPrintImage(file, path, getETag(file));
+                }
+                return file != null ? Files.readAllBytes(file) : null;
+            }
+            try (InputStream in = servletContext.getResourceAsStream(path)) {
+                return in != null ? IOUtils.toByteArray(in) : null;
+            }
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Error loading PDF resource " + uri + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+
+    /**
+     * Returns the repository file with the given request path, fetching it from Niord if the
+     * repository is a locally maintained copy. Returns null if the file does not exist
+     * @param path the request path
+     * @return the repository file
+     */
+    private Path getRepoFile(String path) {
+        String repoPath = path.substring(REPO_FILE_PATH.length());
+        Path file = repositoryService.getRepoFile(repoPath);
+        if (file != null && settings.getRepoType() == Settings.RepoType.LOCAL && Files.notExists(file)) {
+            file = repositoryService.fetchNiordFile(
+                    settings.getServer() + REPO_FILE_PATH + WebUtils.encodeURIComponent(repoPath), file);
+        }
+        return file != null && Files.isRegularFile(file) ? file : null;
+    }
+
+
+    /** Returns the ETag of the file, composed from its last-modified time and size, or null if undefined **/
+    private String getETag(Path file) {
+        try {
+            return file != null
+                    ? Files.getLastModifiedTime(file).toMillis() + "_" + Files.size(file)
+                    : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * Returns the decoded path of the URI, if it refers to a resource of this server, and null otherwise
+     * @param uri the absolute URI of the resource
+     * @return the decoded path of the URI
+     */
+    private String getLocalPath(String uri) {
+        try {
+            URI u = new URI(uri);
+            boolean local = u.getScheme() == null
+                    || ("http".equals(u.getScheme()) && ("localhost".equals(u.getHost()) || "127.0.0.1".equals(u.getHost())));
+            if (local && u.getRawQuery() == null && u.getPath() != null && u.getPath().startsWith("/")) {
+                return u.getPath();
+            }
+        } catch (Exception ignored) {
+        }
+        return null;
+    }
+
+
+    /**
+     * A synchronized LRU cache bounded by the total size of the cached values,
+     * where values larger than {@link #MAX_CACHED_RESOURCE_SIZE} are not cached
+     */
+    private static class LruCache<V> {
+
+        private final Map<String, CacheEntry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long size;
+
+        /** Returns the cached value with the given key, or null if not cached **/
+        synchronized V get(String key) {
+            CacheEntry<V> entry = entries.get(key);
+            return entry != null ? entry.value : null;
+        }
+
+        /** Caches the value with the given size, evicting the least recently used values if needed **/
+        synchronized void put(String key, V value, int valueSize) {
+            if (valueSize > MAX_CACHED_RESOURCE_SIZE) {
+                return;
+            }
+            CacheEntry<V> prevEntry = entries.put(key, new CacheEntry<>(value, valueSize));
+            size += valueSize - (prevEntry != null ? prevEntry.size : 0);
+            Iterator<CacheEntry<V>> it = entries.values().iterator();
+            while (size > MAX_CACHED_BYTES && it.hasNext()) {
+                size -= it.next().size;
+                it.remove();
+            }
+        }
+    }
+
+
+    /** A cached value along with its size **/
+    private static class CacheEntry<V> {
+        final V value;
+        final int size;
+
+        CacheEntry(V value, int size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+}
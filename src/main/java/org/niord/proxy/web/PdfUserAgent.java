@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.niord.proxy.web;
+
+import com.itextpdf.text.Image;
+import org.xhtmlrenderer.pdf.ITextFSImage;
+import org.xhtmlrenderer.pdf.ITextOutputDevice;
+import org.xhtmlrenderer.pdf.ITextRenderer;
+import org.xhtmlrenderer.pdf.ITextUserAgent;
+import org.xhtmlrenderer.resource.ImageResource;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+/**
+ * Flying Saucer user agent that resolves local resources using the {@link PdfResourceCache},
+ * and only falls back to fetching resources via HTTP for non-local resources.
+ */
+public class PdfUserAgent extends ITextUserAgent {
+
+    private final PdfResourceCache resourceCache;
+
+
+    /**
+     * Constructor
+     * @param outputDevice the PDF output device
+     * @param resourceCache the PDF resource cache
+     */
+    public PdfUserAgent(ITextOutputDevice outputDevice, PdfResourceCache resourceCache) {
+        super(outputDevice);
+        this.resourceCache = resourceCache;
+    }
+
+
+    /**
+     * Installs a new user agent in the given renderer
+     * @param renderer the renderer
+     * @param resourceCache the PDF resource cache
+     */
+    public static void install(ITextRenderer renderer, PdfResourceCache resourceCache) {
+        PdfUserAgent userAgent = new PdfUserAgent(renderer.getOutputDevice(), resourceCache);
+        userAgent.setSharedContext(renderer.getSharedContext());
+        renderer.getSharedContext().setUserAgentCallback(userAgent);
+    }
+
+
+    /** {@inheritDoc} **/
+    @Override
+    protected InputStream resolveAndOpenStream(String uri) {
+        byte[] data = resourceCache.getResource(resolveURI(uri));
+        return data != null
+                ? new ByteArrayInputStream(data)
+                : super.resolveAndOpenStream(uri);
+    }
+
+
+    /** {@inheritDoc} **/
+    @Override
+    public ImageResource getImageResource(String uri) {
+        String resolvedUri = resolveURI(uri);
+        Image image = resourceCache.getImage(resolvedUri, getSharedContext().getDotsPerPixel());
+        return image != null
+                ? new ImageResource(resolvedUri, new ITextFSImage(image))
+                : super.getImageResource(uri);
+    }
+}
@@ -16,18 +16,18 @@
 package org.niord.proxy.web;
 
 import org.apache.commons.lang.StringUtils;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Entities;
 import org.niord.model.message.AreaVo;
 import org.niord.model.message.AttachmentVo;
 import org.niord.model.message.AttachmentVo.AttachmentDisplayType;
 import org.niord.model.message.MessageVo;
+import org.niord.proxy.conf.LocaleResources;
 
-import java.text.SimpleDateFormat;
 import java.util.Collections;
 import java.util.List;
-import java.util.Locale;
 import java.util.Objects;
-import java.util.ResourceBundle;
-import java.util.TimeZone;
 import java.util.stream.Collectors;
 
 /**
@@ -78,9 +78,10 @@ public class TldFunctions {
     /**
      * Returns the source to display for a message.
      * @param msg the message
+     * @param resources the locale resources to use
      * @return the source display for a message
      */
-    public static String renderMessageSource(MessageVo msg, Locale locale, String timeZoneId) {
+    public static String renderMessageSource(MessageVo msg, LocaleResources resources) {
         String result = "";
         if (msg != null) {
             if (msg.getDescs() != null && !msg.getDescs().isEmpty()
@@ -88,18 +89,13 @@ public class TldFunctions {
                 result += msg.getDescs().get(0).getSource();
             }
             if (msg.getPublishDateFrom() != null) {
-                TimeZone timeZone = TimeZone.getTimeZone(timeZoneId);
-                ResourceBundle bundle = ResourceBundle.getBundle("MessageDetails", locale);
-                SimpleDateFormat format = new SimpleDateFormat(bundle.getString("source_date_format"), locale);
-                format.setTimeZone(timeZone);
-
                 if (StringUtils.isNotBlank(result)) {
                     if (!result.endsWith(".")) {
                         result += ".";
                     }
                     result += " ";
                 }
-                result += bundle.getString("source_published") + " " + format.format(msg.getPublishDateFrom());
+                result += resources.getString("source_published") + " " + resources.formatSourceDate(msg.getPublishDateFrom());
             }
         }
         return result;
@@ -121,4 +117,25 @@ public class TldFunctions {
                     .collect(Collectors.toList());
     }
 
+
+    /**
+     * Returns the HTML fragment as a well-formed XHTML fragment, if xhtml is set to true,
+     * and otherwise returns the HTML fragment unchanged.
+     * Fragments without markup or entities are returned as is.
+     * @param html the HTML fragment
+     * @param xhtml whether to return the fragment as well-formed XHTML
+     * @return the HTML fragment, as XHTML if xhtml is true
+     */
+    public static String xhtml(String html, boolean xhtml) {
+        if (!xhtml || html == null || (html.indexOf('<') == -1 && html.indexOf('&') == -1)) {
+            return html;
+        }
+        Document doc = Jsoup.parseBodyFragment(html);
+        doc.outputSettings()
+                .syntax(Document.OutputSettings.Syntax.xml)
+                .escapeMode(Entities.EscapeMode.xhtml)
+                .prettyPrint(false);
+        return doc.body().html();
+    }
+
 }
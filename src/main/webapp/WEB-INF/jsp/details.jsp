@@ -5,9 +5,10 @@
 <%@ taglib uri="/WEB-INF/tags/functions" prefix="msg" %>
 <%@ taglib tagdir="/WEB-INF/tags/render"  prefix="render" %>
 
-<html>
+<c:if test="${not fragment}"><html></c:if>
 <fmt:setLocale value="${lang}"/>
 <fmt:bundle basename="MessageDetails">
+<c:if test="${not fragment}">
 <head>
     <meta charset="utf-8" />
 
@@ -15,8 +16,22 @@
     <link rel="icon" href="/img/niord-proxy_152.png" sizes="152x152" type="image/png" />
     <link rel="apple-touch-icon" href="/img/niord-proxy_152.png" sizes="152x152" type="image/png" />
 
-    <link rel="stylesheet" type="text/css" href="/css/message.css">
-    <link rel="stylesheet" type="text/css" href="/css/details${pdf ? '-pdf' : '-html'}.css">
+    <link rel="stylesheet" type="text/css" href="/css/message.css" />
+    <link rel="stylesheet" type="text/css" href="/css/details${pdf ? '-pdf' : '-html'}.css" />
+
+    <c:if test="${xhtml and messageList ne false}">
+        <!-- PDF bookmarks for the area headings -->
+        <bookmarks>
+            <c:set var="bookmarkAreaId" value="${-9999}"/>
+            <c:forEach var="msg" items="${messages}" varStatus="status">
+                <c:set var="areaHeading" value="${msg:areaHeading(msg)}"/>
+                <c:if test="${not empty areaHeading and bookmarkAreaId != areaHeading.id}">
+                    <c:set var="bookmarkAreaId" value="${areaHeading.id}"/>
+                    <bookmark name="${fn:escapeXml(msg:renderMessageArea(areaHeading, false))}" href="#area-${status.index}"/>
+                </c:if>
+            </c:forEach>
+        </bookmarks>
+    </c:if>
 
 </head>
 <body>
@@ -26,11 +41,11 @@
     <!-- Add language selection -->
     <div style="text-align: right; padding-top: 5px">
         <span style="margin-right: 10px">
-            <a href="/details.pdf?language=${lang}" target="_blank"><img src="/img/print.png" border="0" height="16"></a>
+            <a href="/details.pdf?language=${lang}" target="_blank"><img src="/img/print.png" border="0" height="16" /></a>
         </span>
         <c:forEach var="l" items="${languages}">
             <span style="margin-right: 10px">
-                <a href="/details.html?language=${l}"><img src="/img/flags/${l}.png" border="0" height="16"></a>
+                <a href="/details.html?language=${l}"><img src="/img/flags/${l}.png" border="0" height="16" /></a>
             </span>
         </c:forEach>
     </div>
@@ -45,33 +60,45 @@
                 <td width="30%" align="left" valign="bottom">
                 </td>
                 <td width="40%" align="center" valign="middle">
-                    <img src="/img/logo.png" style="height: 1cm">
+                    <img src="/img/logo.png" style="height: 1cm" />
                 </td>
                 <td width="30%" align="right" valign="bottom">
-                    <fmt:message key="page"/> <span id="pagenumber"/>&nbsp;/&nbsp;<span id="pagecount"/>
+                    <c:if test="${pageNumbers ne false}">
+                        <fmt:message key="page"/> <span id="pagenumber"/>&#160;/&#160;<span id="pagecount"/>
+                    </c:if>
                 </td>
             </tr>
         </table>
     </div>
 </c:if>
+</c:if>
 
+<c:if test="${messageList ne false}">
+<c:choose>
+<c:when test="${fragment}">
+    <!-- Fragment with the rows of a subsequent page of messages -->
+    <table><tbody id="message-rows">
+</c:when>
+<c:otherwise>
 <div class="message-details-list">
 
     <c:if test="${fn:length(searchText) > 0}">
-        <div class="message-search-text">${searchText}</div>
+        <div class="message-search-text">${msg:xhtml(searchText, xhtml)}</div>
     </c:if>
 
-    <table class="message-table">
+    <table class="message-table" id="message-table">
+</c:otherwise>
+</c:choose>
 
-    <c:set var="areaHeadingId" value="${-9999}"/>
-    <c:forEach var="msg" items="${messages}">
+    <c:set var="areaHeadingId" value="${empty prevAreaHeadingId ? -9999 : prevAreaHeadingId}"/>
+    <c:forEach var="msg" items="${messages}" varStatus="status">
 
         <c:set var="areaHeading" value="${msg:areaHeading(msg)}"/>
         <c:if test="${not empty areaHeading and areaHeadingId != areaHeading.id}">
             <c:set var="areaHeadingId" value="${areaHeading.id}"/>
             <tr style="page-break-after: avoid;">
                 <td>
-                    <h4 class="message-area-heading">${msg:renderMessageArea(areaHeading, false)}</h4>
+                    <h4 class="message-area-heading" id="area-${firstIndex + status.index}">${msg:xhtml(msg:renderMessageArea(areaHeading, false), xhtml)}</h4>
                 </td>
             </tr>
         </c:if>
@@ -82,7 +109,7 @@
 
                     <!-- Render attachments above the message -->
                     <c:forEach var="att" items="${msg:attachments(msg, 'ABOVE')}">
-                        <render:attachment att="${att}"/>
+                        <render:attachment att="${att}" xhtml="${xhtml}"/>
                     </c:forEach>
 
                     <!-- Title line -->
@@ -90,10 +117,10 @@
                         <div class="original-information"><b>*</b></div>
                     </c:if>
                     <div>
-                        <render:messageIdBadge msg="${msg}"/>
+                        <render:messageIdBadge msg="${msg}" xhtml="${xhtml}"/>
                     </div>
                     <c:if test="${not empty msg.descs}">
-                        <div class="message-title">${msg.descs[0].title}</div>
+                        <div class="message-title">${msg:xhtml(msg.descs[0].title, xhtml)}</div>
                     </c:if>
 
                     <table class="message-details-item-fields">
@@ -106,7 +133,7 @@
                                     <c:forEach var="ref" items="${msg.references}">
                                         <div>
                                             <msg:trailingDot>
-                                                ${ref.messageId}
+                                                ${msg:xhtml(ref.messageId, xhtml)}
                                                 <c:choose>
                                                     <c:when test="${ref.type == 'REPETITION'}"><fmt:message key="ref_repetition"/> </c:when>
                                                     <c:when test="${ref.type == 'REPETITION_NEW_TIME'}"><fmt:message key="ref_repetition_new_time"/> </c:when>
@@ -114,7 +141,7 @@
                                                     <c:when test="${ref.type == 'UPDATE'}"><fmt:message key="ref_update"/> </c:when>
                                                 </c:choose>
                                                 <c:if test="not empty ref.descs">
-                                                    - ${ref.descs[0].description}
+                                                    - ${msg:xhtml(ref.descs[0].description, xhtml)}
                                                 </c:if>
                                             </msg:trailingDot>
                                         </div>
@@ -141,10 +168,10 @@
                                     </th>
                                     <td class="message-description">
                                         <c:if test="${not empty part.descs && not empty part.descs[0].subject && part.hideSubject ne true}">
-                                            <div><strong>${part.descs[0].subject}</strong></div>
+                                            <div><strong>${msg:xhtml(part.descs[0].subject, xhtml)}</strong></div>
                                         </c:if>
                                         <c:if test="${not empty part.descs && not empty part.descs[0].details}">
-                                            <c:out value="${part.descs[0].details}" escapeXml="false"/>
+                                            <c:out value="${msg:xhtml(part.descs[0].details, xhtml)}" escapeXml="false"/>
                                         </c:if>
                                     </td>
                                 </tr>
@@ -158,7 +185,7 @@
                                 <td>
                                     <msg:trailingDot>
                                         <c:forEach var="chart" items="${msg.charts}" varStatus="status">
-                                            ${chart.chartNumber}<c:if test="${not empty chart.internationalNumber}"> (INT ${chart.internationalNumber})</c:if><c:if test="${not status.last}">, </c:if>
+                                            ${msg:xhtml(chart.chartNumber, xhtml)}<c:if test="${not empty chart.internationalNumber}"> (INT ${chart.internationalNumber})</c:if><c:if test="${not status.last}">, </c:if>
                                         </c:forEach>
                                     </msg:trailingDot>
                                 </td>
@@ -170,7 +197,7 @@
                             <tr>
                                 <th><fmt:message key="field_publication"/></th>
                                 <td class="message-publication">
-                                    ${msg.descs[0].publication}
+                                    ${msg:xhtml(msg.descs[0].publication, xhtml)}
                                 </td>
                             </tr>
                         </c:if>
@@ -179,7 +206,7 @@
                         <c:if test="${(not empty msg.descs and not empty msg.descs[0].source) or not empty msg.publishDateFrom}">
                             <tr>
                                 <td align="right" colspan="2">
-                                    (${msg:renderMessageSource(msg, locale, timeZone)})
+                                    (${msg:xhtml(msg:renderMessageSource(msg, resources), xhtml)})
                                 </td>
                             </tr>
                         </c:if>
@@ -188,32 +215,97 @@
 
                     <!-- Render attachments below the message -->
                     <c:forEach var="att" items="${msg:attachments(msg, 'BELOW')}">
-                        <render:attachment att="${att}"/>
+                        <render:attachment att="${att}" xhtml="${xhtml}"/>
                     </c:forEach>
 
                 </div>
             </td>
         </tr>
     </c:forEach>
+<c:choose>
+<c:when test="${fragment}">
+    </tbody></table>
+</c:when>
+<c:otherwise>
     </table>
 </div>
+</c:otherwise>
+</c:choose>
+</c:if>
+
+<c:if test="${not empty nextPageUrl}">
+    <!-- Placeholder for lazily loading the next page of messages -->
+    <div id="next-page" class="message-details-next-page" data-url="${fn:escapeXml(nextPageUrl)}">...</div>
+</c:if>
 
 <!-- Render separate-page attachments -->
+<c:if test="${attachmentPages ne false}">
+<div id="attachment-pages">
 <c:forEach var="msg" items="${messages}">
     <c:forEach var="att" items="${msg:attachments(msg, 'SEPARATE_PAGE')}">
         <div class="separate-attachment-page">
             <c:set var="messageId" value="${(not empty msg.shortId) ? msg.shortId : msg.id}"/>
             <div style="margin: 1mm">
                 <h4 style="color: #8f2f7b; font-size: 16px;">
-                    <fmt:message key="field_attachments"/> - ${messageId}
+                    <fmt:message key="field_attachments"/> - ${msg:xhtml(messageId, xhtml)}
                 </h4>
             </div>
-            <render:attachment att="${att}"/>
+            <render:attachment att="${att}" xhtml="${xhtml}"/>
         </div>
     </c:forEach>
 </c:forEach>
+</div>
+</c:if>
+
+<c:if test="${not fragment and not empty nextPageUrl}">
+<script type="text/javascript">
+    // Lazily load subsequent pages of messages when the next-page placeholder is scrolled into view
+    (function () {
+        var loading = false;
+
+        function moveChildren(from, to) {
+            while (from && to && from.firstChild) {
+                to.appendChild(from.firstChild);
+            }
+        }
+
+        function loadNextPage() {
+            var next = document.getElementById('next-page');
+            if (loading || !next || next.getBoundingClientRect().top > window.innerHeight + 1000) {
+                return;
+            }
+            loading = true;
+            var xhr = new XMLHttpRequest();
+            xhr.open('GET', next.getAttribute('data-url'));
+            xhr.onload = function () {
+                var page = new DOMParser().parseFromString(xhr.responseText, 'text/html');
+                moveChildren(page.getElementById('message-rows'), document.getElementById('message-table').tBodies[0]);
+                moveChildren(page.getElementById('attachment-pages'), document.getElementById('attachment-pages'));
+                var nextPage = page.getElementById('next-page');
+                if (xhr.status === 200 && nextPage) {
+                    next.setAttribute('data-url', nextPage.getAttribute('data-url'));
+                } else {
+                    next.parentNode.removeChild(next);
+                }
+                loading = false;
+                loadNextPage();
+            };
+            xhr.onerror = function () {
+                loading = false;
+            };
+            xhr.send();
+        }
 
+        window.addEventListener('scroll', loadNextPage);
+        window.addEventListener('resize', loadNextPage);
+        loadNextPage();
+    })();
+</script>
+</c:if>
+
+<c:if test="${not fragment}">
 </body>
+</c:if>
 </fmt:bundle>
-</html>
+<c:if test="${not fragment}"></html></c:if>
 
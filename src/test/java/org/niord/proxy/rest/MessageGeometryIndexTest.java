@@ -0,0 +1,162 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.niord.proxy.rest;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import org.junit.Before;
+import org.junit.Test;
+import org.niord.proxy.rest.MessageGeometryIndex.MessageDistance;
+import org.niord.proxy.util.GeoUtils;
+import org.niord.proxy.util.JtsConverter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the message geometry index
+ */
+public class MessageGeometryIndexTest {
+
+    /** The length of one degree along a meridian in nautical miles **/
+    private static final double NM_PER_DEGREE = Math.PI * GeoUtils.EARTH_RADIUS_NM / 180.0;
+
+    private MessageGeometryIndex index;
+
+
+    /** Indexes messages along the equator at 30, 120 and 600 NM east of position 0,0 **/
+    @Before
+    public void init() throws Exception {
+        Map<String, List<Geometry>> geometries = new HashMap<>();
+        geometries.put("a", geometries("POINT(0.5 0)"));
+        geometries.put("b", geometries("POINT(2 0)"));
+        geometries.put("c", geometries("POINT(10 0)", "POINT(12 0)"));
+        geometries.put("area", geometries("POLYGON((-20 10, -19 10, -19 11, -20 11, -20 10))"));
+        index = new MessageGeometryIndex(geometries);
+    }
+
+
+    @Test
+    public void testEnvelopeAndCentroid() {
+        assertEquals(10.0, index.getEnvelope("c").getMinX(), 1e-9);
+        assertEquals(12.0, index.getEnvelope("c").getMaxX(), 1e-9);
+        assertEquals(11.0, index.getCentroid("c").x, 1e-9);
+        assertEquals(-19.5, index.getCentroid("area").x, 1e-9);
+        assertEquals(10.5, index.getCentroid("area").y, 1e-9);
+    }
+
+
+    @Test
+    public void testNearestExpandsSearchRadius() {
+        // Only "a" is within the initial search radius, so the radius must grow to find "b"
+        List<MessageDistance> nearest = index.getNearestMessages(0.0, 0.0, null, 2, id -> true);
+        assertEquals(Arrays.asList("a", "b"), ids(nearest));
+        assertEquals(NM_PER_DEGREE / 2.0, nearest.get(0).getDistance(), 1e-6);
+        assertEquals(NM_PER_DEGREE * 2.0, nearest.get(1).getDistance(), 1e-6);
+
+        assertEquals(Arrays.asList("a", "b", "c"), ids(index.getNearestMessages(0.0, 0.0, null, 3, id -> true)));
+    }
+
+
+    @Test
+    public void testNearestReturnsAllMessagesWhenLimitExceedsIndex() {
+        assertEquals(Arrays.asList("a", "b", "c", "area"), ids(index.getNearestMessages(0.0, 0.0, null, 10, id -> true)));
+    }
+
+
+    @Test
+    public void testNearestWithMaxDistance() {
+        assertEquals(Collections.singletonList("a"), ids(index.getNearestMessages(0.0, 0.0, 100.0, 10, id -> true)));
+        assertTrue(index.getNearestMessages(0.0, 0.0, 10.0, 10, id -> true).isEmpty());
+    }
+
+
+    @Test
+    public void testNearestWithFilter() {
+        assertEquals(Collections.singletonList("b"), ids(index.getNearestMessages(0.0, 0.0, null, 1, id -> !"a".equals(id))));
+    }
+
+
+    @Test
+    public void testNearestUsesNearestGeometryOfMessage() {
+        // The distance to a message is the distance to the nearest of its geometries
+        List<MessageDistance> nearest = index.getNearestMessages(0.0, 13.0, null, 1, id -> true);
+        assertEquals(Collections.singletonList("c"), ids(nearest));
+        assertEquals(NM_PER_DEGREE, nearest.get(0).getDistance(), 1e-6);
+    }
+
+
+    @Test
+    public void testNearestWithinPolygon() {
+        List<MessageDistance> nearest = index.getNearestMessages(10.5, -19.5, null, 1, id -> true);
+        assertEquals(Collections.singletonList("area"), ids(nearest));
+        assertEquals(0.0, nearest.get(0).getDistance(), 1e-9);
+    }
+
+
+    @Test
+    public void testMessagesAlongRoute() throws Exception {
+        // The route passes 6 NM north of "a", "b" and the first point of "c"
+        RouteCorridor corridor = new RouteCorridor((LineString) JtsConverter.wktToJts("LINESTRING(0 0.1, 11 0.1)"), 20.0);
+
+        List<MessageDistance> messages = index.getMessagesAlongRoute(corridor, id -> true);
+        assertEquals(Arrays.asList("a", "b", "c"), ids(messages));
+        double routeLength = GeoUtils.distanceNm(0.1, 0.0, 0.1, 11.0);
+        assertEquals(routeLength * 0.5 / 11.0, messages.get(0).getDistance(), 1e-6);
+        assertEquals(routeLength * 10.0 / 11.0, messages.get(2).getDistance(), 1e-6);
+
+        assertEquals(Arrays.asList("a", "c"), ids(index.getMessagesAlongRoute(corridor, id -> !"b".equals(id))));
+    }
+
+
+    @Test
+    public void testMessagesAlongRouteOutsideCorridor() throws Exception {
+        RouteCorridor corridor = new RouteCorridor((LineString) JtsConverter.wktToJts("LINESTRING(0 1, 11 1)"), 20.0);
+        assertTrue(index.getMessagesAlongRoute(corridor, id -> true).isEmpty());
+    }
+
+
+    @Test
+    public void testEmptyIndex() {
+        assertTrue(MessageGeometryIndex.EMPTY.getNearestMessages(0.0, 0.0, null, 10, id -> true).isEmpty());
+    }
+
+
+    /** Parses the WKT geometries **/
+    static List<Geometry> geometries(String... wkts) throws Exception {
+        List<Geometry> result = new ArrayList<>();
+        for (String wkt : wkts) {
+            result.add(JtsConverter.wktToJts(wkt));
+        }
+        return result;
+    }
+
+
+    /** Returns the message IDs of the message distances **/
+    static List<String> ids(List<MessageDistance> distances) {
+        return distances.stream()
+                .map(MessageDistance::getMessageId)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.niord.proxy.rest;
+
+import org.junit.Test;
+import org.niord.model.message.AreaVo;
+import org.niord.model.message.MessagePartVo;
+import org.niord.model.message.MessageVo;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the full-text message index
+ */
+public class MessageTextIndexTest {
+
+    private static final String[] LANGUAGES = { "en", "da" };
+
+    @Test
+    public void testTokenize() {
+        assertEquals(Arrays.asList("hello", "world", "2"), MessageTextIndex.tokenize("Hello, World-2"));
+        assertEquals(Arrays.asList("gale", "warning"), MessageTextIndex.tokenize("<p>Gale <b>warning</b></p>"));
+        assertTrue(MessageTextIndex.tokenize(null).isEmpty());
+        assertTrue(MessageTextIndex.tokenize("  ").isEmpty());
+    }
+
+
+    @Test
+    public void testTokenizeDecodesEntities() {
+        assertEquals(Arrays.asList("k\u00f8benhavn", "malm\u00f6"),
+                MessageTextIndex.tokenize("<p>K&oslash;benhavn &amp; Malm&ouml;</p>"));
+        assertEquals(Collections.singletonList("\u00e6bler\u00f8d"), MessageTextIndex.tokenize("&aelig;bler&#248;d"));
+    }
+
+
+    @Test
+    public void testSearchRanksTitlesHigher() {
+        MessageVo m1 = message("1", "Gale warning Skagen", null);
+        MessageVo m2 = message("2", "Buoy missing", "Off <b>Skagen</b> harbour");
+        MessageTextIndex index = MessageTextIndex.build(Arrays.asList(m1, m2), LANGUAGES, MessageTextIndex.EMPTY);
+
+        Map<String, Float> scores = index.search("en", "skagen");
+        assertEquals(2, scores.size());
+        assertEquals(MessageTextIndex.TITLE_WEIGHT, scores.get("1"), 1e-6f);
+        assertEquals(MessageTextIndex.DESCRIPTION_WEIGHT, scores.get("2"), 1e-6f);
+    }
+
+
+    @Test
+    public void testSearchRequiresAllTerms() {
+        MessageVo m1 = message("1", "Gale warning Skagen", null);
+        MessageVo m2 = message("2", "Buoy missing", "Off Skagen harbour");
+        MessageTextIndex index = MessageTextIndex.build(Arrays.asList(m1, m2), LANGUAGES, MessageTextIndex.EMPTY);
+
+        assertEquals(Collections.singleton("2"), index.search("en", "Skagen buoy").keySet());
+        assertTrue(index.search("en", "skagen lighthouse").isEmpty());
+        assertTrue(index.search("en", "").isEmpty());
+    }
+
+
+    @Test
+    public void testSearchPrefixMatches() {
+        MessageVo m1 = message("1", "Gale warning Skagen", null);
+        MessageTextIndex index = MessageTextIndex.build(Collections.singletonList(m1), LANGUAGES, MessageTextIndex.EMPTY);
+
+        Map<String, Float> scores = index.search("en", "skag");
+        assertEquals(MessageTextIndex.TITLE_WEIGHT * MessageTextIndex.PREFIX_MATCH_FACTOR, scores.get("1"), 1e-6f);
+    }
+
+
+    @Test
+    public void testSearchDecodedEntities() {
+        MessageVo m1 = message("1", "K&oslash;benhavn harbour closed", null);
+        MessageTextIndex index = MessageTextIndex.build(Collections.singletonList(m1), LANGUAGES, MessageTextIndex.EMPTY);
+
+        assertEquals(Collections.singleton("1"), index.search("en", "K\u00f8benhavn").keySet());
+    }
+
+
+    @Test
+    public void testSearchAreaNames() {
+        AreaVo parent = new AreaVo();
+        parent.setId(1);
+        parent.checkCreateDesc("en").setName("Denmark");
+        AreaVo area = new AreaVo();
+        area.setId(2);
+        area.setParent(parent);
+        area.checkCreateDesc("en").setName("Kattegat");
+
+        MessageVo m1 = message("1", "Gale warning", null);
+        m1.setAreas(Collections.singletonList(area));
+        MessageTextIndex index = MessageTextIndex.build(Collections.singletonList(m1), LANGUAGES, MessageTextIndex.EMPTY);
+
+        assertEquals(MessageTextIndex.AREA_WEIGHT, index.search("en", "kattegat").get("1"), 1e-6f);
+        assertEquals(MessageTextIndex.AREA_WEIGHT, index.search("en", "denmark").get("1"), 1e-6f);
+    }
+
+
+    @Test
+    public void testSearchFallsBackToFirstDescription() {
+        // The message only has an English description, which is indexed for Danish as well
+        MessageVo m1 = message("1", "Gale warning Skagen", null);
+        MessageTextIndex index = MessageTextIndex.build(Collections.singletonList(m1), LANGUAGES, MessageTextIndex.EMPTY);
+
+        assertEquals(Collections.singleton("1"), index.search("da", "skagen").keySet());
+        assertTrue(index.search("de", "skagen").isEmpty());
+    }
+
+
+    @Test
+    public void testUnchangedMessagesAreReused() {
+        MessageVo m1 = message("1", "Alpha", null);
+        MessageTextIndex index1 = MessageTextIndex.build(Collections.singletonList(m1), LANGUAGES, MessageTextIndex.EMPTY);
+
+        // Messages with an unchanged update time are not re-tokenized
+        MessageVo m1Unchanged = message("1", "Beta", null);
+        MessageTextIndex index2 = MessageTextIndex.build(Collections.singletonList(m1Unchanged), LANGUAGES, index1);
+        assertEquals(Collections.singleton("1"), index2.search("en", "alpha").keySet());
+
+        // Updated messages are re-tokenized
+        MessageVo m1Updated = message("1", "Beta", null);
+        m1Updated.setUpdated(new Date(m1.getUpdated().getTime() + 1000L));
+        MessageTextIndex index3 = MessageTextIndex.build(Collections.singletonList(m1Updated), LANGUAGES, index2);
+        assertTrue(index3.search("en", "alpha").isEmpty());
+        assertEquals(Collections.singleton("1"), index3.search("en", "beta").keySet());
+
+        // Messages no longer in the message list are removed
+        MessageTextIndex index4 = MessageTextIndex.build(Collections.<MessageVo>emptyList(), LANGUAGES, index3);
+        assertTrue(index4.search("en", "beta").isEmpty());
+    }
+
+
+    /** Returns a message with an English title and optional message part details **/
+    private static MessageVo message(String id, String title, String details) {
+        MessageVo message = new MessageVo();
+        message.setId(id);
+        message.setUpdated(new Date(1483228800000L));
+        message.checkCreateDesc("en").setTitle(title);
+        if (details != null) {
+            MessagePartVo part = new MessagePartVo();
+            part.checkCreateDesc("en").setDetails(details);
+            List<MessagePartVo> parts = Collections.singletonList(part);
+            message.setParts(parts);
+        }
+        return message;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.niord.proxy.rest;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import org.junit.Test;
+import org.niord.proxy.util.GeoUtils;
+import org.niord.proxy.util.JtsConverter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the route corridor
+ */
+public class RouteCorridorTest {
+
+    @Test
+    public void testIntersectsAtEquator() throws Exception {
+        RouteCorridor corridor = corridor("LINESTRING(0 0, 10 0)", 20.0);
+
+        // The corridor extends 10 NM to either side of the route
+        assertTrue(corridor.intersects(JtsConverter.toJtsPoint(GeoUtils.nmToDegrees(8.0), 5.0)));
+        assertTrue(corridor.intersects(JtsConverter.toJtsPoint(-GeoUtils.nmToDegrees(8.0), 5.0)));
+        assertFalse(corridor.intersects(JtsConverter.toJtsPoint(GeoUtils.nmToDegrees(12.0), 5.0)));
+        assertTrue(corridor.intersects(JtsConverter.wktToJts("LINESTRING(5 -1, 5 1)")));
+    }
+
+
+    @Test
+    public void testWidthAtHighLatitude() throws Exception {
+        RouteCorridor corridor = corridor("LINESTRING(0 60, 10 60)", 20.0);
+
+        // North-south, the half-width is measured in latitude degrees
+        assertTrue(corridor.intersects(JtsConverter.toJtsPoint(60.0 + GeoUtils.nmToDegrees(8.0), 5.0)));
+        assertFalse(corridor.intersects(JtsConverter.toJtsPoint(60.0 + GeoUtils.nmToDegrees(12.0), 5.0)));
+
+        // East-west, a longitude degree is only half as long at latitude 60
+        double lonDegreesPerNm = GeoUtils.nmToDegrees(1.0) / Math.cos(Math.toRadians(60.0));
+        assertTrue(corridor.intersects(JtsConverter.toJtsPoint(60.0, 10.0 + 8.0 * lonDegreesPerNm)));
+        assertFalse(corridor.intersects(JtsConverter.toJtsPoint(60.0, 10.0 + 12.0 * lonDegreesPerNm)));
+    }
+
+
+    @Test
+    public void testSegmentEnvelopesCoverCorridor() throws Exception {
+        RouteCorridor corridor = corridor("LINESTRING(0 60, 10 60, 10 62)", 20.0);
+        assertEquals(2, corridor.getSegmentEnvelopes().size());
+
+        // The segment envelopes must contain the corridor at the eastern end of the route
+        double lon = 10.0 + 9.0 * GeoUtils.nmToDegrees(1.0) / Math.cos(Math.toRadians(61.0));
+        assertTrue(corridor.getSegmentEnvelopes().stream().anyMatch(e -> e.contains(lon, 61.0)));
+
+        Envelope first = corridor.getSegmentEnvelopes().get(0);
+        assertEquals(60.0 - GeoUtils.nmToDegrees(10.0), first.getMinY(), 1e-9);
+    }
+
+
+    @Test
+    public void testDistanceAlongRoute() throws Exception {
+        RouteCorridor corridor = corridor("LINESTRING(0 60, 10 60, 10 62)", 20.0);
+        double firstLeg = GeoUtils.distanceNm(60.0, 0.0, 60.0, 10.0);
+        double secondLeg = GeoUtils.distanceNm(60.0, 10.0, 62.0, 10.0);
+
+        assertEquals(0.0, corridor.distanceAlongRoute(JtsConverter.toJtsPoint(60.0, -1.0)), 1e-9);
+        assertEquals(firstLeg / 2.0, corridor.distanceAlongRoute(JtsConverter.toJtsPoint(60.1, 5.0)), 1e-6);
+        assertEquals(firstLeg + secondLeg / 2.0, corridor.distanceAlongRoute(JtsConverter.toJtsPoint(61.0, 10.1)), 1e-6);
+        assertEquals(firstLeg + secondLeg, corridor.distanceAlongRoute(JtsConverter.toJtsPoint(63.0, 10.0)), 1e-6);
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyRoute() {
+        new RouteCorridor(new GeometryFactory().createLineString(new Coordinate[0]), 20.0);
+    }
+
+
+    /** Returns the corridor for the WKT route **/
+    private static RouteCorridor corridor(String wkt, double width) throws Exception {
+        return new RouteCorridor((LineString) JtsConverter.wktToJts(wkt), width);
+    }
+}
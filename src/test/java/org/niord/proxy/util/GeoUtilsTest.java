@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.niord.proxy.util;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Point;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the geographical utility functions
+ */
+public class GeoUtilsTest {
+
+    /** The length of one degree along a meridian in nautical miles **/
+    private static final double NM_PER_DEGREE = Math.PI * GeoUtils.EARTH_RADIUS_NM / 180.0;
+
+    @Test
+    public void testDistanceNm() {
+        assertEquals(0.0, GeoUtils.distanceNm(55.0, 11.0, 55.0, 11.0), 1e-9);
+        assertEquals(NM_PER_DEGREE, GeoUtils.distanceNm(0.0, 0.0, 0.0, 1.0), 1e-6);
+        assertEquals(NM_PER_DEGREE, GeoUtils.distanceNm(0.0, 0.0, 1.0, 0.0), 1e-6);
+        assertEquals(GeoUtils.MAX_DISTANCE_NM, GeoUtils.distanceNm(0.0, 0.0, 0.0, 180.0), 1e-6);
+    }
+
+
+    @Test
+    public void testNmToDegrees() {
+        assertEquals(1.0, GeoUtils.nmToDegrees(NM_PER_DEGREE), 1e-9);
+    }
+
+
+    @Test
+    public void testDistanceToGeometry() throws Exception {
+        Point point = (Point) JtsConverter.toJtsPoint(0.0, 0.0);
+
+        // Points within polygons have distance 0
+        assertEquals(0.0, GeoUtils.distanceNm(point,
+                JtsConverter.wktToJts("POLYGON((-1 -1, 1 -1, 1 1, -1 1, -1 -1))")), 1e-9);
+
+        // The distance to the nearest point of the geometry
+        assertEquals(NM_PER_DEGREE, GeoUtils.distanceNm(point,
+                JtsConverter.wktToJts("LINESTRING(1 -1, 1 1)")), 1e-6);
+    }
+
+
+    @Test
+    public void testDistanceToGeometryCollection() throws Exception {
+        Point point = (Point) JtsConverter.toJtsPoint(0.0, 0.0);
+
+        // JTS does not support contains() for heterogeneous geometry collections
+        assertEquals(0.0, GeoUtils.distanceNm(point, JtsConverter.wktToJts(
+                "GEOMETRYCOLLECTION(POINT(5 5), POLYGON((-1 -1, 1 -1, 1 1, -1 1, -1 -1)))")), 1e-9);
+        assertEquals(NM_PER_DEGREE, GeoUtils.distanceNm(point, JtsConverter.wktToJts(
+                "GEOMETRYCOLLECTION(POINT(5 5), POLYGON((1 -1, 2 -1, 2 1, 1 1, 1 -1)))")), 1e-6);
+    }
+
+
+    @Test
+    public void testEnvelopeNm() {
+        // All positions within the distance must be contained in the envelope
+        for (double lat : new double[] { 0.0, 45.0, 60.0, -70.0 }) {
+            double lon = 10.0;
+            double distance = 120.0;
+            Envelope envelope = GeoUtils.envelopeNm(lat, lon, distance);
+            for (double dLat = -3.0; dLat <= 3.0; dLat += 0.1) {
+                for (double dLon = -10.0; dLon <= 10.0; dLon += 0.1) {
+                    if (GeoUtils.distanceNm(lat, lon, lat + dLat, lon + dLon) <= distance) {
+                        assertTrue("Envelope " + envelope + " must contain " + (lat + dLat) + "," + (lon + dLon),
+                                envelope.contains(lon + dLon, lat + dLat));
+                    }
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void testEnvelopeNmNearPole() {
+        Envelope envelope = GeoUtils.envelopeNm(89.5, 0.0, 60.0);
+        assertEquals(-180.0, envelope.getMinX(), 1e-9);
+        assertEquals(180.0, envelope.getMaxX(), 1e-9);
+        assertEquals(90.0, envelope.getMaxY(), 1e-9);
+    }
+
+
+    @Test
+    public void testMercator() {
+        assertEquals(0.0, GeoUtils.mercatorX(-180.0), 1e-9);
+        assertEquals(0.5, GeoUtils.mercatorX(0.0), 1e-9);
+        assertEquals(0.5, GeoUtils.mercatorY(0.0), 1e-9);
+        assertEquals(45.0, GeoUtils.mercatorLat(GeoUtils.mercatorY(45.0)), 1e-9);
+        assertEquals(-120.0, GeoUtils.mercatorLon(GeoUtils.mercatorX(-120.0)), 1e-9);
+        assertEquals(0.0, GeoUtils.mercatorY(90.0), 1e-6);
+    }
+}
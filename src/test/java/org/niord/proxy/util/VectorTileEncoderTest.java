@@ -0,0 +1,350 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.niord.proxy.util;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the Mapbox Vector Tile encoder
+ */
+public class VectorTileEncoderTest {
+
+    @Test
+    public void testEncodePoint() throws Exception {
+        VectorTileEncoder encoder = new VectorTileEncoder();
+        encoder.addFeature("m", null, JtsConverter.wktToJts("POINT(25 17)"));
+
+        // The complete tile, with a single layer containing a single point feature
+        byte[] expected = bytes(
+                0x1A, 0x11,                     // Layer, 17 bytes
+                0x78, 0x02,                     // Version 2
+                0x0A, 0x01, 'm',                // Name
+                0x12, 0x07,                     // Feature, 7 bytes
+                0x18, 0x01,                     // Point type
+                0x22, 0x03, 0x09, 0x32, 0x22,   // Geometry: MoveTo(1), zigzag(25), zigzag(17)
+                0x28, 0x80, 0x20);              // Extent 4096
+        assertArrayEquals(expected, encoder.encode());
+    }
+
+
+    @Test
+    public void testEncodeMultiPoint() throws Exception {
+        VectorTileEncoder encoder = new VectorTileEncoder();
+        encoder.addFeature("messages", null, JtsConverter.wktToJts("MULTIPOINT((5 5), (3 7))"));
+
+        DecodedFeature feature = decode(encoder.encode()).get(0).features.get(0);
+        assertEquals(1, feature.type);
+        // MoveTo(2), then the cursor moves relative to the previous point, with negative values zigzag-encoded
+        assertEquals(Arrays.asList(17, 10, 10, 3, 4), feature.geometry);
+    }
+
+
+    @Test
+    public void testEncodeLineString() throws Exception {
+        VectorTileEncoder encoder = new VectorTileEncoder();
+        encoder.addFeature("messages", null, JtsConverter.wktToJts("LINESTRING(2 2, 2 10, 2.2 10.2, 10 10)"));
+
+        DecodedFeature feature = decode(encoder.encode()).get(0).features.get(0);
+        assertEquals(2, feature.type);
+        // Consecutive points rounded to the same tile coordinate are skipped
+        assertEquals(Arrays.asList(9, 4, 4, 18, 0, 16, 16, 0), feature.geometry);
+    }
+
+
+    @Test
+    public void testPolygonWindingOrder() throws Exception {
+        // Exterior rings must have a positive area and interior rings a negative area in tile coordinates,
+        // regardless of the orientation of the input rings
+        for (String wkt : new String[] {
+                "POLYGON((0 0, 100 0, 100 100, 0 100, 0 0), (20 20, 20 80, 80 80, 80 20, 20 20))",
+                "POLYGON((0 0, 0 100, 100 100, 100 0, 0 0), (20 20, 80 20, 80 80, 20 80, 20 20))" }) {
+
+            VectorTileEncoder encoder = new VectorTileEncoder();
+            encoder.addFeature("messages", null, JtsConverter.wktToJts(wkt));
+
+            DecodedFeature feature = decode(encoder.encode()).get(0).features.get(0);
+            assertEquals(3, feature.type);
+            List<long[]> rings = decodeRings(feature.geometry);
+            assertEquals(2, rings.size());
+            assertTrue(wkt, area(rings.get(0)) > 0);
+            assertTrue(wkt, area(rings.get(1)) < 0);
+        }
+    }
+
+
+    @Test
+    public void testPolygonCommands() throws Exception {
+        VectorTileEncoder encoder = new VectorTileEncoder();
+        encoder.addFeature("messages", null, JtsConverter.wktToJts("POLYGON((0 0, 10 0, 10 10, 0 10, 0 0))"));
+
+        // MoveTo(1), LineTo(3) and ClosePath, without repeating the first point
+        DecodedFeature feature = decode(encoder.encode()).get(0).features.get(0);
+        assertEquals(Arrays.asList(9, 0, 0, 26, 20, 0, 0, 20, 19, 0, 15), feature.geometry);
+    }
+
+
+    @Test
+    public void testDegenerateGeometriesAreSkipped() throws Exception {
+        VectorTileEncoder encoder = new VectorTileEncoder();
+        encoder.addFeature("messages", null, JtsConverter.wktToJts("LINESTRING(1.1 1.1, 1.2 1.2)"));
+        encoder.addFeature("messages", null, JtsConverter.wktToJts("POLYGON((0 0, 0.2 0, 0.2 0.2, 0 0))"));
+        assertTrue(encoder.isEmpty());
+        assertEquals(0, encoder.encode().length);
+    }
+
+
+    @Test
+    public void testGeometryCollectionIsSplit() throws Exception {
+        VectorTileEncoder encoder = new VectorTileEncoder();
+        encoder.addFeature("messages", null, JtsConverter.wktToJts(
+                "GEOMETRYCOLLECTION(POINT(1 1), POLYGON((0 0, 10 0, 10 10, 0 10, 0 0)))"));
+
+        List<DecodedFeature> features = decode(encoder.encode()).get(0).features;
+        assertEquals(2, features.size());
+        assertEquals(1, features.get(0).type);
+        assertEquals(3, features.get(1).type);
+    }
+
+
+    @Test
+    public void testAttributes() throws Exception {
+        Map<String, Object> attributes1 = new LinkedHashMap<>();
+        attributes1.put("id", "NW-001-17");
+        attributes1.put("type", "NW");
+        attributes1.put("ignored", null);
+
+        Map<String, Object> attributes2 = new LinkedHashMap<>();
+        attributes2.put("id", "NW-002-17");
+        attributes2.put("type", "NW");
+
+        VectorTileEncoder encoder = new VectorTileEncoder(256);
+        encoder.addFeature("messages", attributes1, JtsConverter.wktToJts("POINT(1 1)"));
+        encoder.addFeature("messages", attributes2, JtsConverter.wktToJts("POINT(2 2)"));
+        encoder.addFeature("other", Collections.singletonMap("type", "NM"), JtsConverter.wktToJts("POINT(3 3)"));
+
+        List<DecodedLayer> layers = decode(encoder.encode());
+        assertEquals(2, layers.size());
+
+        // Keys and values are shared by the features of a layer
+        DecodedLayer layer = layers.get(0);
+        assertEquals(256, layer.extent);
+        assertEquals(Arrays.asList("id", "type"), layer.keys);
+        assertEquals(3, layer.valueCount);
+        assertEquals(Arrays.asList(0, 0, 1, 1), layer.features.get(0).tags);
+        assertEquals(Arrays.asList(0, 2, 1, 1), layer.features.get(1).tags);
+
+        // Each layer has its own keys and values
+        assertEquals(Collections.singletonList("type"), layers.get(1).keys);
+        assertEquals(Arrays.asList(0, 0), layers.get(1).features.get(0).tags);
+    }
+
+
+    /** Returns the byte array of the given unsigned byte values **/
+    private static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (byte) values[i];
+        }
+        return result;
+    }
+
+
+    /** Decodes the geometry commands of a polygon into rings of tile coordinates **/
+    private static List<long[]> decodeRings(List<Integer> geometry) {
+        List<long[]> rings = new ArrayList<>();
+        List<Long> ring = new ArrayList<>();
+        long x = 0, y = 0;
+        int i = 0;
+        while (i < geometry.size()) {
+            int command = geometry.get(i) & 0x7;
+            int count = geometry.get(i) >>> 3;
+            i++;
+            if (command == 7) {
+                long[] coords = new long[ring.size()];
+                for (int c = 0; c < coords.length; c++) {
+                    coords[c] = ring.get(c);
+                }
+                rings.add(coords);
+                ring.clear();
+                continue;
+            }
+            for (int c = 0; c < count; c++) {
+                x += zigZagDecode(geometry.get(i++));
+                y += zigZagDecode(geometry.get(i++));
+                ring.add(x);
+                ring.add(y);
+            }
+        }
+        return rings;
+    }
+
+
+    /** Returns twice the signed area of the ring, given as alternating x and y coordinates **/
+    private static long area(long[] ring) {
+        long area = 0;
+        int n = ring.length / 2;
+        for (int i = 0; i < n; i++) {
+            int j = (i + 1) % n;
+            area += ring[2 * i] * ring[2 * j + 1] - ring[2 * j] * ring[2 * i + 1];
+        }
+        return area;
+    }
+
+
+    private static int zigZagDecode(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+
+    /** Decodes the layers of the tile **/
+    private static List<DecodedLayer> decode(byte[] tile) {
+        List<DecodedLayer> layers = new ArrayList<>();
+        ProtoReader reader = new ProtoReader(tile, 0, tile.length);
+        while (reader.hasNext()) {
+            int tag = (int) reader.readVarint();
+            if (tag >>> 3 == 3) {
+                layers.add(decodeLayer(reader.readMessage()));
+            } else {
+                reader.skip(tag & 0x7);
+            }
+        }
+        return layers;
+    }
+
+
+    /** Decodes the layer **/
+    private static DecodedLayer decodeLayer(ProtoReader reader) {
+        DecodedLayer layer = new DecodedLayer();
+        while (reader.hasNext()) {
+            int tag = (int) reader.readVarint();
+            switch (tag >>> 3) {
+                case 1: layer.name = reader.readString(); break;
+                case 2: layer.features.add(decodeFeature(reader.readMessage())); break;
+                case 3: layer.keys.add(reader.readString()); break;
+                case 4: reader.readMessage(); layer.valueCount++; break;
+                case 5: layer.extent = (int) reader.readVarint(); break;
+                default: reader.skip(tag & 0x7);
+            }
+        }
+        return layer;
+    }
+
+
+    /** Decodes the feature **/
+    private static DecodedFeature decodeFeature(ProtoReader reader) {
+        DecodedFeature feature = new DecodedFeature();
+        while (reader.hasNext()) {
+            int tag = (int) reader.readVarint();
+            switch (tag >>> 3) {
+                case 2: feature.tags.addAll(reader.readPacked()); break;
+                case 3: feature.type = (int) reader.readVarint(); break;
+                case 4: feature.geometry.addAll(reader.readPacked()); break;
+                default: reader.skip(tag & 0x7);
+            }
+        }
+        return feature;
+    }
+
+
+    /** A decoded tile layer **/
+    private static class DecodedLayer {
+        String name;
+        int extent;
+        int valueCount;
+        final List<String> keys = new ArrayList<>();
+        final List<DecodedFeature> features = new ArrayList<>();
+    }
+
+
+    /** A decoded tile feature **/
+    private static class DecodedFeature {
+        int type;
+        final List<Integer> tags = new ArrayList<>();
+        final List<Integer> geometry = new ArrayList<>();
+    }
+
+
+    /** Minimal protocol buffer reader **/
+    private static class ProtoReader {
+        final byte[] buf;
+        final int end;
+        int pos;
+
+        ProtoReader(byte[] buf, int pos, int end) {
+            this.buf = buf;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        boolean hasNext() {
+            return pos < end;
+        }
+
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = buf[pos++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+
+        ProtoReader readMessage() {
+            int length = (int) readVarint();
+            ProtoReader msg = new ProtoReader(buf, pos, pos + length);
+            pos += length;
+            return msg;
+        }
+
+        String readString() {
+            ProtoReader msg = readMessage();
+            return new String(buf, msg.pos, msg.end - msg.pos, StandardCharsets.UTF_8);
+        }
+
+        List<Integer> readPacked() {
+            ProtoReader msg = readMessage();
+            List<Integer> values = new ArrayList<>();
+            while (msg.hasNext()) {
+                values.add((int) msg.readVarint());
+            }
+            return values;
+        }
+
+        void skip(int wireType) {
+            switch (wireType) {
+                case 0: readVarint(); break;
+                case 1: pos += 8; break;
+                case 2: readMessage(); break;
+                case 5: pos += 4; break;
+                default: throw new IllegalStateException("Unsupported wire type " + wireType);
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.niord.proxy.util;
+
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the web utility functions
+ */
+public class WebUtilsTest {
+
+    @Test
+    public void testSha1Hex() {
+        assertEquals("a9993e364706816aba3e25717850c26c9cd0d89d", WebUtils.sha1Hex("abc"));
+    }
+
+
+    @Test
+    public void testNormalizeParametersSortsNamesAndValues() {
+        Map<String, String[]> params = new LinkedHashMap<>();
+        params.put("mainType", new String[] { "NW", "NM" });
+        params.put("areaId", new String[] { "2", "1" });
+
+        assertEquals("{areaId=1,2, mainType=NM,NW}",
+                WebUtils.normalizeParameters(request(params), Collections.<String>emptySet()));
+
+        // The request parameter values must not be sorted in place
+        assertArrayEquals(new String[] { "NW", "NM" }, params.get("mainType"));
+    }
+
+
+    @Test
+    public void testNormalizeParametersIsOrderIndependent() {
+        Map<String, String[]> params1 = new LinkedHashMap<>();
+        params1.put("active", new String[] { "true" });
+        params1.put("areaId", new String[] { "1", "2" });
+
+        Map<String, String[]> params2 = new LinkedHashMap<>();
+        params2.put("areaId", new String[] { "2", "1" });
+        params2.put("active", new String[] { "true" });
+
+        assertEquals(
+                WebUtils.normalizeParameters(request(params1), Collections.<String>emptySet()),
+                WebUtils.normalizeParameters(request(params2), Collections.<String>emptySet()));
+    }
+
+
+    @Test
+    public void testNormalizeParametersIgnoredParams() {
+        Map<String, String[]> params = new LinkedHashMap<>();
+        params.put("language", new String[] { "da" });
+        params.put("active", new String[] { "true" });
+
+        assertEquals("{active=true}",
+                WebUtils.normalizeParameters(request(params), Collections.singleton("language")));
+    }
+
+
+    @Test
+    public void testNormalizeParametersIncludedParams() {
+        Map<String, String[]> params = new LinkedHashMap<>();
+        params.put("active", new String[] { "true" });
+        params.put("x", new String[] { "cache-buster" });
+        params.put("messageId", new String[] { "NW-001-17" });
+
+        HashSet<String> includedParams = new HashSet<>(Arrays.asList("active", "messageId"));
+        assertEquals("{active=true, messageId=NW-001-17}",
+                WebUtils.normalizeParameters(request(params), includedParams::contains));
+    }
+
+
+    /** Returns a request with the given parameters **/
+    private static HttpServletRequest request(Map<String, String[]> params) {
+        return (HttpServletRequest) Proxy.newProxyInstance(
+                WebUtilsTest.class.getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class },
+                (proxy, method, args) -> {
+                    if ("getParameterMap".equals(method.getName())) {
+                        return params;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}